@@ -9,7 +9,7 @@ import ru.practicum.StatsClient;
 import ru.practicum.category.model.Category;
 import ru.practicum.category.repository.CategoryRepository;
 import ru.practicum.dto.EndpointHitDto;
-import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.dto.LongLongMap;
 import ru.practicum.event.dto.*;
 import ru.practicum.event.mapper.EventMapper;
 import ru.practicum.event.model.*;
@@ -28,6 +28,7 @@ import ru.practicum.utils.CustomPageRequest;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -41,6 +42,7 @@ public class EventServiceImpl implements EventService {
     private final UserRepository userRepository;
     private final RequestRepository requestRepository;
     private final StatsClient statsClient;
+    private final ViewsCache viewsCache;
     private static final String USER_NOT_FOUND = "User с id: %d не найден";
     private static final String EVENT_NOT_FOUND = "Event с id: %d не найден";
     private static final String CATEGORY_NOT_FOUND = "Категория не найдена";
@@ -196,12 +198,13 @@ public class EventServiceImpl implements EventService {
         checkUserExistsById(userId);
         Pageable pageable = new CustomPageRequest(from, size);
         List<Event> eventList = eventRepository.findAllByInitiatorId(userId, pageable);
+        CompletableFuture<LongLongMap> viewsRequest = viewsCache.getViews(eventList);
         List<EventShortDto> eventShortList = eventList.stream().map(EventMapper::toEventShortDto)
                 .collect(Collectors.toList());
-        Map<Long, Long> views = getViews(eventList);
+        LongLongMap views = awaitViews(viewsRequest);
         eventShortList.forEach(event -> {
-            if (views.get(event.getId()) != null) {
-                event.setViews(views.get(event.getId()));
+            if (views.containsKey(event.getId())) {
+                event.setViews(views.get(event.getId(), 0));
             }
         });
         eventShortList.forEach(event -> event.setConfirmedRequests(getConfirmedRequest(event.getId())));
@@ -247,9 +250,10 @@ public class EventServiceImpl implements EventService {
             throw new ObjectNotFoundException("Event не найден");
         }
         EventFullDto eventFullDto = EventMapper.toEventFullDto(event);
+        CompletableFuture<LongLongMap> viewsRequest = viewsCache.getViews(List.of(event));
         Map<Long, Long> confirmedRequests = getConfirmedRequests(List.of(event));
-        Map<Long, Long> views = getViews(List.of(event));
-        eventFullDto.setViews(views.getOrDefault(eventFullDto.getId(), 0L));
+        LongLongMap views = awaitViews(viewsRequest);
+        eventFullDto.setViews(views.get(eventFullDto.getId(), 0));
         eventFullDto.setConfirmedRequests(confirmedRequests.getOrDefault(eventFullDto.getId(), 0L));
         log.info("Получен список events от admin с id {}", eventId);
         return eventFullDto;
@@ -298,18 +302,20 @@ public class EventServiceImpl implements EventService {
     }
 
     private List<EventFullDto> setFullDtoAdditionalFields(List<Event> eventList) {
+        CompletableFuture<LongLongMap> viewsRequest = viewsCache.getViews(eventList);
         Map<Long, Long> confirmedRequests = getConfirmedRequests(eventList);
-        Map<Long, Long> views = getViews(eventList);
+        LongLongMap views = awaitViews(viewsRequest);
         return eventList.stream().map(event ->
-                EventMapper.eventToFullDto(event, views.getOrDefault(event.getId(), 0L),
+                EventMapper.eventToFullDto(event, views.get(event.getId(), 0),
                         confirmedRequests.getOrDefault(event.getId(), 0L))).collect(Collectors.toList());
     }
 
     private List<EventShortDto> setShortDtoAdditionalFields(List<Event> eventList) {
+        CompletableFuture<LongLongMap> viewsRequest = viewsCache.getViews(eventList);
         Map<Long, Long> confirmedRequests = getConfirmedRequests(eventList);
-        Map<Long, Long> views = getViews(eventList);
+        LongLongMap views = awaitViews(viewsRequest);
         return eventList.stream().map(event ->
-                EventMapper.eventToShortDto(event, views.getOrDefault(event.getId(), 0L),
+                EventMapper.eventToShortDto(event, views.get(event.getId(), 0),
                         confirmedRequests.getOrDefault(event.getId(), 0L))).collect(Collectors.toList());
     }
 
@@ -319,9 +325,10 @@ public class EventServiceImpl implements EventService {
         Event event = eventRepository.findById(eventId).orElseThrow(() ->
                 new ObjectNotFoundException(String.format(EVENT_NOT_FOUND, eventId)));
         EventFullDto eventFullDto = EventMapper.toEventFullDto(event);
+        CompletableFuture<LongLongMap> viewsRequest = viewsCache.getViews(List.of(event));
         Map<Long, Long> confirmedRequests = getConfirmedRequests(List.of(event));
-        Map<Long, Long> views = getViews(List.of(event));
-        eventFullDto.setViews(views.getOrDefault(eventFullDto.getId(), 0L));
+        LongLongMap views = awaitViews(viewsRequest);
+        eventFullDto.setViews(views.get(eventFullDto.getId(), 0));
         eventFullDto.setConfirmedRequests(confirmedRequests.getOrDefault(eventFullDto.getId(), 0L));
         log.info("Получен event по id {} от user c id {}", eventId, userId);
         return eventFullDto;
@@ -338,28 +345,11 @@ public class EventServiceImpl implements EventService {
         }
     }
 
-    private Map<Long, Long> getViews(List<Event> events) {
-        Map<Long, Long> views = new HashMap<>();
-        List<Event> publishedEvents = new ArrayList<>();
-        for (Event event : events) {
-            if (event.getPublishedOn() != null) {
-                publishedEvents.add(event);
-            }
-        }
-        Optional<LocalDateTime> minPublish = publishedEvents.stream().map(Event::getPublishedOn)
-                .min(LocalDateTime::compareTo);
-        if (minPublish.isPresent()) {
-            LocalDateTime start = minPublish.get();
-            LocalDateTime end = LocalDateTime.now();
-            List<String> uris = publishedEvents.stream().map(event -> "/events/" + event.getId())
-                    .collect(Collectors.toList());
-            List<ViewStatsDto> statsDto = statsClient.getStats(start, end, uris, true);
-            statsDto.forEach(stat -> {
-                Long eventId = Long.parseLong(stat.getUri().substring(stat.getUri().lastIndexOf("/") + 1));
-                views.put(eventId, stat.getHits());
-            });
-        }
-        return views;
+    private LongLongMap awaitViews(CompletableFuture<LongLongMap> viewsRequest) {
+        return viewsRequest.exceptionally(e -> {
+            log.warn("Не удалось получить просмотры из сервиса статистики: {}", e.toString());
+            return new LongLongMap();
+        }).join();
     }
 
     private Long getConfirmedRequest(Long eventId) {
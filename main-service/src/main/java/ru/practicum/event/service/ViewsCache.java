@@ -0,0 +1,212 @@
+package ru.practicum.event.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.StatsClient;
+import ru.practicum.dto.LongLongMap;
+import ru.practicum.dto.ViewsQueryDto;
+import ru.practicum.event.model.Event;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Кэш просмотров событий. Используемые записи обновляются в фоне пачками незадолго до истечения
+ * max-staleness, запись старше max-staleness считается промахом. При переполнении вытесняются давно
+ * не запрошенные события.
+ */
+@Slf4j
+@Component
+public class ViewsCache {
+    private static final int EVICTION_PERCENT = 10;
+    private final StatsClient statsClient;
+    private final int capacity;
+    private final long maxStaleness;
+    private final long refreshInterval;
+    private final long refreshAge;
+    private final long idleTimeout;
+    private final int batchSize;
+    private final LongLongMap slots;
+    private final long[] eventIds;
+    private final long[] views;
+    private final long[] starts;
+    private final long[] refreshedAt;
+    private final long[] accessedAt;
+    private final int[] free;
+    private final ScheduledExecutorService refresher;
+    private final ExecutorService loader;
+    private int freeCount;
+
+    public ViewsCache(StatsClient statsClient,
+                      @Value("${views-cache.capacity:100000}") int capacity,
+                      @Value("${views-cache.max-staleness:30s}") Duration maxStaleness,
+                      @Value("${views-cache.refresh-interval:5s}") Duration refreshInterval,
+                      @Value("${views-cache.idle-timeout:10m}") Duration idleTimeout,
+                      @Value("${views-cache.batch-size:500}") int batchSize) {
+        this.statsClient = statsClient;
+        this.capacity = capacity;
+        this.maxStaleness = maxStaleness.toMillis();
+        this.refreshInterval = refreshInterval.toMillis();
+        this.refreshAge = Math.max(0, this.maxStaleness - this.refreshInterval);
+        this.idleTimeout = idleTimeout.toMillis();
+        this.batchSize = batchSize;
+        this.slots = new LongLongMap(capacity);
+        this.eventIds = new long[capacity];
+        this.views = new long[capacity];
+        this.starts = new long[capacity];
+        this.refreshedAt = new long[capacity];
+        this.accessedAt = new long[capacity];
+        this.free = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            free[i] = capacity - 1 - i;
+        }
+        this.freeCount = capacity;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "views-cache-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.loader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "views-cache-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refresh, this.refreshInterval, this.refreshInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public CompletableFuture<LongLongMap> getViews(List<Event> events) {
+        long now = System.currentTimeMillis();
+        LongLongMap result = new LongLongMap(events.size());
+        long[] missingIds = new long[events.size()];
+        long[] missingStarts = new long[events.size()];
+        int missing = 0;
+        synchronized (this) {
+            for (Event event : events) {
+                if (event.getPublishedOn() == null) {
+                    continue;
+                }
+                int slot = (int) slots.get(event.getId(), -1);
+                if (slot >= 0 && now - refreshedAt[slot] <= maxStaleness) {
+                    accessedAt[slot] = now;
+                    result.put(event.getId(), views[slot]);
+                } else {
+                    missingIds[missing] = event.getId();
+                    missingStarts[missing++] = event.getPublishedOn().toEpochSecond(ZoneOffset.UTC);
+                }
+            }
+        }
+        if (missing == 0) {
+            return CompletableFuture.completedFuture(result);
+        }
+        long[] ids = Arrays.copyOf(missingIds, missing);
+        long[] starts = Arrays.copyOf(missingStarts, missing);
+        return statsClient.getViewsAsync(toQuery(ids, starts)).thenApplyAsync(loaded -> {
+            store(ids, starts, loaded, now);
+            for (long eventId : ids) {
+                result.put(eventId, loaded.get(eventId, 0));
+            }
+            return result;
+        }, loader);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+        loader.shutdownNow();
+    }
+
+    private void refresh() {
+        long now = System.currentTimeMillis();
+        long[] dueIds = new long[capacity];
+        long[] dueStarts = new long[capacity];
+        int due = 0;
+        synchronized (this) {
+            for (int slot = 0; slot < capacity; slot++) {
+                if (eventIds[slot] == 0) {
+                    continue;
+                }
+                if (now - accessedAt[slot] > idleTimeout) {
+                    evict(slot);
+                } else if (now - refreshedAt[slot] >= refreshAge) {
+                    dueIds[due] = eventIds[slot];
+                    dueStarts[due++] = starts[slot];
+                }
+            }
+        }
+        for (int from = 0; from < due; from += batchSize) {
+            long[] ids = Arrays.copyOfRange(dueIds, from, Math.min(due, from + batchSize));
+            long[] batchStarts = Arrays.copyOfRange(dueStarts, from, Math.min(due, from + batchSize));
+            try {
+                long refreshed = System.currentTimeMillis();
+                store(ids, batchStarts, statsClient.getViews(toQuery(ids, batchStarts)), refreshed);
+            } catch (RuntimeException e) {
+                log.warn("Не удалось обновить просмотры {} событий: {}", ids.length, e.getMessage());
+                return;
+            }
+        }
+        if (due > 0) {
+            log.debug("Обновлены просмотры {} событий", due);
+        }
+    }
+
+    private synchronized void store(long[] ids, long[] idStarts, LongLongMap loaded, long now) {
+        for (int i = 0; i < ids.length; i++) {
+            int slot = (int) slots.get(ids[i], -1);
+            if (slot < 0) {
+                if (freeCount == 0) {
+                    evictIdlest();
+                }
+                slot = free[--freeCount];
+                slots.put(ids[i], slot);
+                eventIds[slot] = ids[i];
+                accessedAt[slot] = now;
+            }
+            starts[slot] = idStarts[i];
+            views[slot] = loaded.get(ids[i], 0);
+            refreshedAt[slot] = now;
+        }
+    }
+
+    private void evictIdlest() {
+        long[] order = new long[capacity - freeCount];
+        int used = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (eventIds[slot] != 0) {
+                order[used++] = accessedAt[slot];
+            }
+        }
+        Arrays.sort(order, 0, used);
+        long threshold = order[Math.max(0, used * EVICTION_PERCENT / 100 - 1)];
+        for (int slot = 0; slot < capacity; slot++) {
+            if (eventIds[slot] != 0 && accessedAt[slot] <= threshold) {
+                evict(slot);
+            }
+        }
+    }
+
+    private void evict(int slot) {
+        slots.remove(eventIds[slot]);
+        eventIds[slot] = 0;
+        free[freeCount++] = slot;
+    }
+
+    private static ViewsQueryDto toQuery(long[] ids, long[] starts) {
+        return ViewsQueryDto.builder()
+                .end(LocalDateTime.now())
+                .eventIds(ids)
+                .starts(starts)
+                .unique(true)
+                .build();
+    }
+}
@@ -1,59 +1,350 @@
 package ru.practicum;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.DefaultUriBuilderFactory;
+import ru.practicum.client.AsyncStatsTransport;
+import ru.practicum.client.HitAggregator;
+import ru.practicum.client.HitBuffer;
+import ru.practicum.client.HitSampler;
+import ru.practicum.client.HttpClientFactory;
+import ru.practicum.client.SingleFlight;
+import ru.practicum.client.HitSpool;
+import ru.practicum.client.StatsClientProperties;
 import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.HitChangesDto;
+import ru.practicum.dto.LongLongMap;
+import ru.practicum.dto.StatsBatchQueryDto;
+import ru.practicum.dto.StatsQueryDto;
+import ru.practicum.dto.TimeInterval;
+import ru.practicum.dto.TimeSeriesDto;
+import ru.practicum.dto.UriStartDto;
 import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.dto.ViewsDto;
+import ru.practicum.dto.ViewsQueryDto;
 
+import javax.annotation.PreDestroy;
+import java.nio.LongBuffer;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+@Slf4j
 @Service
 public class StatsClient {
     private final RestTemplate restTemplate;
+    private final HttpComponentsClientHttpRequestFactory requestFactory;
+    private final AsyncStatsTransport asyncTransport;
+    private final Duration deadline;
+    private final HitBuffer hitBuffer;
+    private final HitAggregator hitAggregator;
+    private final HitSpool hitSpool;
+    private final HitSampler hitSampler;
+    private final int postQueryThreshold;
+    private final HttpHeaders headers;
+    private final SingleFlight<List<Object>, List<ViewStatsDto>> statsFlight;
+    private final SingleFlight<List<Object>, List<ViewStatsDto>> batchFlight;
+    private final SingleFlight<List<Object>, LongLongMap> viewsFlight;
+    private final long coalesceWindow;
 
-    public StatsClient(@Value("${stats-server.url}") String serverUrl, RestTemplateBuilder builder) {
+    public StatsClient(@Value("${stats-server.url}") String serverUrl, RestTemplateBuilder builder,
+                       Jackson2ObjectMapperBuilder objectMapperBuilder, MeterRegistry meterRegistry,
+                       StatsClientProperties properties) {
+        this.requestFactory = HttpClientFactory.createRequestFactory(properties.getHttp());
         this.restTemplate = builder
                 .uriTemplateHandler(new DefaultUriBuilderFactory(serverUrl))
-                .requestFactory(HttpComponentsClientHttpRequestFactory::new)
+                .requestFactory(() -> requestFactory)
                 .build();
+        this.asyncTransport = new AsyncStatsTransport(serverUrl,
+                properties.getWireFormat().createObjectMapper(objectMapperBuilder), properties.getWireFormat(),
+                properties.getHttp());
+        this.deadline = properties.getHttp().getDeadline();
+        this.postQueryThreshold = properties.getQuery().getPostThreshold();
+        boolean coalesce = properties.getCoalesce().isEnabled();
+        this.statsFlight = coalesce ? new SingleFlight<>("stats", meterRegistry) : null;
+        this.batchFlight = coalesce ? new SingleFlight<>("batch", meterRegistry) : null;
+        this.viewsFlight = coalesce ? new SingleFlight<>("views", meterRegistry) : null;
+        this.coalesceWindow = Math.max(1, properties.getCoalesce().getWindow().toSeconds());
+        HttpHeaders wireHeaders = new HttpHeaders();
+        wireHeaders.setContentType(properties.getWireFormat().getMediaType());
+        wireHeaders.setAccept(List.of(properties.getWireFormat().getMediaType()));
+        this.headers = HttpHeaders.readOnlyHttpHeaders(wireHeaders);
+        this.hitSpool = properties.getSpool().isEnabled()
+                ? new HitSpool(properties.getSpool(), this::replayHits)
+                : null;
+        this.hitBuffer = properties.getAsync().isEnabled()
+                ? new HitBuffer(properties.getAsync(), this::sendHits, hitSpool != null ? hitSpool::append : null)
+                : null;
+        this.hitAggregator = properties.getAggregate().isEnabled()
+                ? new HitAggregator(properties.getAggregate(), this::sendHits)
+                : null;
+        this.hitSampler = properties.getSampling().isEnabled()
+                ? new HitSampler(properties.getSampling())
+                : null;
     }
 
     public ResponseEntity<Object> saveStats(EndpointHitDto endpointHitDto) {
-        return makeAndSendRequest(HttpMethod.POST, "/hit", null, endpointHitDto);
+        if (hitSampler != null) {
+            endpointHitDto = hitSampler.sample(endpointHitDto);
+            if (endpointHitDto == null) {
+                return ResponseEntity.accepted().build();
+            }
+        }
+        if (hitAggregator != null) {
+            hitAggregator.add(endpointHitDto);
+            return ResponseEntity.accepted().build();
+        }
+        if (hitBuffer != null) {
+            hitBuffer.add(endpointHitDto);
+            return ResponseEntity.accepted().build();
+        }
+        if (hitSpool == null) {
+            return sendHit(endpointHitDto);
+        }
+        if (hitSpool.isEmpty()) {
+            try {
+                ResponseEntity<Object> response = sendHit(endpointHitDto);
+                if (!response.getStatusCode().is5xxServerError()) {
+                    return response;
+                }
+            } catch (ResourceAccessException e) {
+                log.debug("Сервер статистики недоступен: {}", e.getMessage());
+            }
+        }
+        hitSpool.append(endpointHitDto);
+        return ResponseEntity.accepted().build();
     }
 
     public List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique) {
+        return getStats(start, end, uris, unique, false);
+    }
+
+    public List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique,
+                                       Boolean approximate) {
+        if (statsFlight == null) {
+            return fetchStats(start, end, uris, unique, approximate);
+        }
+        LocalDateTime roundedStart = round(start);
+        LocalDateTime roundedEnd = round(end);
+        List<String> uriKey = uris == null ? null : new ArrayList<>(uris);
+        return statsFlight.call(Arrays.asList(roundedStart, roundedEnd, uriKey, unique, approximate),
+                () -> fetchStats(roundedStart, roundedEnd, uris, unique, approximate));
+    }
+
+    public List<ViewStatsDto> getStats(Map<String, LocalDateTime> uriStarts, LocalDateTime end, Boolean unique) {
+        if (batchFlight == null) {
+            return fetchStats(uriStarts, end, unique);
+        }
+        LocalDateTime roundedEnd = round(end);
+        return batchFlight.call(Arrays.asList(new HashMap<>(uriStarts), roundedEnd, unique),
+                () -> fetchStats(uriStarts, roundedEnd, unique));
+    }
+
+    public List<ViewStatsDto> queryStats(StatsQueryDto statsQueryDto) {
+        return toList(restTemplate.postForObject("/stats/query", new HttpEntity<>(statsQueryDto, headers),
+                ViewStatsDto[].class));
+    }
+
+    public CompletableFuture<List<ViewStatsDto>> getStatsAsync(StatsQueryDto statsQueryDto) {
+        return getStatsAsync(statsQueryDto, deadline);
+    }
+
+    public CompletableFuture<List<ViewStatsDto>> getStatsAsync(StatsQueryDto statsQueryDto, Duration deadline) {
+        return asyncTransport.post("/stats/query", statsQueryDto, ViewStatsDto[].class, deadline)
+                .thenApply(StatsClient::toList);
+    }
+
+    public CompletableFuture<List<ViewStatsDto>> getStatsAsync(Map<String, LocalDateTime> uriStarts,
+                                                               LocalDateTime end, Boolean unique) {
+        return getStatsAsync(uriStarts, end, unique, deadline);
+    }
+
+    public CompletableFuture<List<ViewStatsDto>> getStatsAsync(Map<String, LocalDateTime> uriStarts,
+                                                               LocalDateTime end, Boolean unique, Duration deadline) {
+        if (batchFlight == null) {
+            return fetchStatsAsync(uriStarts, end, unique, deadline);
+        }
+        LocalDateTime roundedEnd = round(end);
+        return batchFlight.callAsync(Arrays.asList(new HashMap<>(uriStarts), roundedEnd, unique),
+                () -> fetchStatsAsync(uriStarts, roundedEnd, unique, deadline));
+    }
+
+    public LongLongMap getViews(ViewsQueryDto viewsQueryDto) {
+        if (viewsFlight == null) {
+            return fetchViews(viewsQueryDto);
+        }
+        ViewsQueryDto rounded = roundViewsQuery(viewsQueryDto);
+        return viewsFlight.call(viewsKey(rounded), () -> fetchViews(rounded));
+    }
+
+    public CompletableFuture<LongLongMap> getViewsAsync(ViewsQueryDto viewsQueryDto) {
+        return getViewsAsync(viewsQueryDto, deadline);
+    }
+
+    public CompletableFuture<LongLongMap> getViewsAsync(ViewsQueryDto viewsQueryDto, Duration deadline) {
+        if (viewsFlight == null) {
+            return fetchViewsAsync(viewsQueryDto, deadline);
+        }
+        ViewsQueryDto rounded = roundViewsQuery(viewsQueryDto);
+        return viewsFlight.callAsync(viewsKey(rounded), () -> fetchViewsAsync(rounded, deadline));
+    }
+
+    public HitChangesDto getChanges(@Nullable String cursor, int limit) {
+        String path = cursor == null ? "/stats/changes?limit={limit}" : "/stats/changes?cursor={cursor}&limit={limit}";
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("cursor", cursor);
+        parameters.put("limit", limit);
+        return restTemplate.exchange(path, HttpMethod.GET, new HttpEntity<>(headers), HitChangesDto.class,
+                parameters).getBody();
+    }
+
+    public TimeSeriesDto getTimeSeries(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                       TimeInterval interval, boolean unique) {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        Map<String, Object> parameters = Map.of("start", start.format(formatter), "end", end.format(formatter),
+                "uris", String.join(",", uris), "interval", interval, "unique", unique);
+        return restTemplate.exchange("/stats/timeseries?start={start}&end={end}&uris={uris}&interval={interval}" +
+                "&unique={unique}", HttpMethod.GET, new HttpEntity<>(headers), TimeSeriesDto.class, parameters)
+                .getBody();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (hitAggregator != null) {
+            hitAggregator.close();
+        }
+        if (hitBuffer != null) {
+            hitBuffer.close();
+        }
+        if (hitSpool != null) {
+            hitSpool.close();
+        }
+        asyncTransport.close();
+        try {
+            requestFactory.destroy();
+        } catch (Exception e) {
+            log.warn("Не удалось закрыть HTTP клиент статистики: {}", e.getMessage());
+        }
+    }
+
+    private List<ViewStatsDto> fetchStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique,
+                                          Boolean approximate) {
+        if (uris != null && uris.stream().mapToInt(String::length).sum() + uris.size() > postQueryThreshold) {
+            return queryStats(StatsQueryDto.builder()
+                    .start(start)
+                    .end(end)
+                    .uris(uris)
+                    .unique(unique)
+                    .approximate(approximate)
+                    .build());
+        }
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
         String startStr = start.format(formatter);
         String endStr = end.format(formatter);
         String urisStr = String.join(",", uris);
         Map<String, Object> parameters = Map.of("start", startStr, "end", endStr, "uris", urisStr,
-                "unique", unique);
-        String path = String.format("/stats?start=%s&end=%s&uris=%s&unique=%s", startStr, endStr, urisStr, unique);
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.convertValue(restTemplate.exchange(path, HttpMethod.GET,
-                null, Object.class, parameters).getBody(), new TypeReference<>() {
-        });
+                "unique", unique, "approximate", approximate);
+        String path = String.format("/stats?start=%s&end=%s&uris=%s&unique=%s&approximate=%s", startStr, endStr,
+                urisStr, unique, approximate);
+        return toList(restTemplate.exchange(path, HttpMethod.GET, new HttpEntity<>(headers), ViewStatsDto[].class,
+                parameters).getBody());
+    }
+
+    private List<ViewStatsDto> fetchStats(Map<String, LocalDateTime> uriStarts, LocalDateTime end, Boolean unique) {
+        return toList(restTemplate.postForObject("/stats/batch",
+                new HttpEntity<>(toBatchQuery(uriStarts, end, unique), headers), ViewStatsDto[].class));
+    }
+
+    private CompletableFuture<List<ViewStatsDto>> fetchStatsAsync(Map<String, LocalDateTime> uriStarts,
+                                                                  LocalDateTime end, Boolean unique,
+                                                                  Duration deadline) {
+        return asyncTransport.post("/stats/batch", toBatchQuery(uriStarts, end, unique), ViewStatsDto[].class,
+                deadline).thenApply(StatsClient::toList);
+    }
+
+    private LongLongMap fetchViews(ViewsQueryDto viewsQueryDto) {
+        return toViews(restTemplate.postForObject("/stats/views", new HttpEntity<>(viewsQueryDto, headers),
+                ViewsDto.class));
+    }
+
+    private CompletableFuture<LongLongMap> fetchViewsAsync(ViewsQueryDto viewsQueryDto, Duration deadline) {
+        return asyncTransport.post("/stats/views", viewsQueryDto, ViewsDto.class, deadline)
+                .thenApply(StatsClient::toViews);
+    }
+
+    private ViewsQueryDto roundViewsQuery(ViewsQueryDto viewsQueryDto) {
+        return ViewsQueryDto.builder()
+                .end(round(viewsQueryDto.getEnd()))
+                .eventIds(viewsQueryDto.getEventIds())
+                .starts(viewsQueryDto.getStarts())
+                .unique(viewsQueryDto.isUnique())
+                .approximate(viewsQueryDto.isApproximate())
+                .build();
+    }
+
+    private LocalDateTime round(LocalDateTime time) {
+        long seconds = time.toEpochSecond(ZoneOffset.UTC);
+        return LocalDateTime.ofEpochSecond(seconds - Math.floorMod(seconds, coalesceWindow), 0, ZoneOffset.UTC);
+    }
+
+    private ResponseEntity<Object> sendHit(EndpointHitDto endpointHitDto) {
+        return makeAndSendRequest(HttpMethod.POST, "/hit", null, endpointHitDto);
+    }
+
+    private void sendHits(List<EndpointHitDto> endpointHitDtos) {
+        ResponseEntity<Object> response;
+        try {
+            response = makeAndSendRequest(HttpMethod.POST, "/hits", null, endpointHitDtos);
+        } catch (ResourceAccessException e) {
+            if (hitSpool == null) {
+                throw e;
+            }
+            hitSpool.appendAll(endpointHitDtos);
+            return;
+        }
+        if (response.getStatusCode().is5xxServerError() && hitSpool != null) {
+            hitSpool.appendAll(endpointHitDtos);
+        } else if (!response.getStatusCode().is2xxSuccessful()) {
+            log.warn("Сервер статистики отклонил {} EndpointHit со статусом {}", endpointHitDtos.size(),
+                    response.getStatusCode());
+        }
+    }
+
+    private void replayHits(List<EndpointHitDto> endpointHitDtos) {
+        ResponseEntity<Object> response = makeAndSendRequest(HttpMethod.POST, "/hits", null, endpointHitDtos);
+        if (response.getStatusCode().is5xxServerError()) {
+            throw new IllegalStateException("Сервер статистики ответил со статусом " + response.getStatusCode());
+        }
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            log.warn("Сервер статистики отклонил {} EndpointHit из журнала со статусом {}", endpointHitDtos.size(),
+                    response.getStatusCode());
+        }
     }
 
     private <T> ResponseEntity<Object> makeAndSendRequest(HttpMethod method, String path,
                                                           @Nullable Map<String, Object> parameters,
                                                           @Nullable T body) {
-        HttpEntity<T> requestEntity = new HttpEntity<>(body, null);
+        HttpEntity<T> requestEntity = new HttpEntity<>(body, headers);
         ResponseEntity<Object> serverResponse;
         try {
             if (parameters != null) {
@@ -67,6 +358,38 @@ public class StatsClient {
         return prepareGatewayResponse(serverResponse);
     }
 
+    private static StatsBatchQueryDto toBatchQuery(Map<String, LocalDateTime> uriStarts, LocalDateTime end,
+                                                   Boolean unique) {
+        List<UriStartDto> uris = new ArrayList<>(uriStarts.size());
+        uriStarts.forEach((uri, start) -> uris.add(new UriStartDto(uri, start)));
+        return StatsBatchQueryDto.builder()
+                .end(end)
+                .uris(uris)
+                .unique(unique)
+                .build();
+    }
+
+    private static List<Object> viewsKey(ViewsQueryDto viewsQueryDto) {
+        return Arrays.asList(LongBuffer.wrap(viewsQueryDto.getEventIds().clone()),
+                LongBuffer.wrap(viewsQueryDto.getStarts().clone()), viewsQueryDto.getEnd(), viewsQueryDto.isUnique(),
+                viewsQueryDto.isApproximate());
+    }
+
+    private static LongLongMap toViews(@Nullable ViewsDto viewsDto) {
+        if (viewsDto == null) {
+            return new LongLongMap();
+        }
+        LongLongMap views = new LongLongMap(viewsDto.getEventIds().length);
+        for (int i = 0; i < viewsDto.getEventIds().length; i++) {
+            views.put(viewsDto.getEventIds()[i], viewsDto.getHits()[i]);
+        }
+        return views;
+    }
+
+    private static List<ViewStatsDto> toList(@Nullable ViewStatsDto[] stats) {
+        return stats == null ? List.of() : List.of(stats);
+    }
+
     private static ResponseEntity<Object> prepareGatewayResponse(ResponseEntity<Object> response) {
         if (response.getStatusCode().is2xxSuccessful()) {
             return response;
@@ -0,0 +1,102 @@
+package ru.practicum.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Неблокирующие запросы к серверу статистики. Результат завершается исключением
+ * TimeoutException, если ответ не получен до истечения deadline; сам запрос при этом отменяется.
+ */
+@Slf4j
+public class AsyncStatsTransport implements AutoCloseable {
+    private final CloseableHttpAsyncClient httpClient;
+    private final String serverUrl;
+    private final ObjectMapper objectMapper;
+    private final ContentType contentType;
+
+    public AsyncStatsTransport(String serverUrl, ObjectMapper objectMapper, WireFormat wireFormat,
+                               StatsClientProperties.Http properties) {
+        this.httpClient = HttpClientFactory.createAsyncClient(properties);
+        this.serverUrl = serverUrl;
+        this.objectMapper = objectMapper;
+        this.contentType = ContentType.create(wireFormat.getMediaType().toString());
+    }
+
+    public <T> CompletableFuture<T> get(String path, Class<T> responseType, Duration deadline) {
+        return execute(new HttpGet(serverUrl + path), responseType, deadline);
+    }
+
+    public <T> CompletableFuture<T> post(String path, Object body, Class<T> responseType, Duration deadline) {
+        HttpPost request = new HttpPost(serverUrl + path);
+        try {
+            request.setEntity(new ByteArrayEntity(objectMapper.writeValueAsBytes(body), contentType));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return execute(request, responseType, deadline);
+    }
+
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            log.warn("Не удалось закрыть HTTP клиент статистики: {}", e.getMessage());
+        }
+    }
+
+    private <T> CompletableFuture<T> execute(HttpUriRequest request, Class<T> responseType, Duration deadline) {
+        request.setHeader(HttpHeaders.ACCEPT, contentType.getMimeType());
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<HttpResponse> call = httpClient.execute(request, new FutureCallback<>() {
+            @Override
+            public void completed(HttpResponse response) {
+                int status = response.getStatusLine().getStatusCode();
+                try {
+                    byte[] body = EntityUtils.toByteArray(response.getEntity());
+                    if (status / 100 != 2) {
+                        result.completeExceptionally(new IllegalStateException(
+                                "Сервер статистики ответил со статусом " + status));
+                        return;
+                    }
+                    result.complete(objectMapper.readValue(body, responseType));
+                } catch (IOException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+        result.orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS).whenComplete((value, error) -> {
+            if (error instanceof TimeoutException) {
+                call.cancel(true);
+            }
+        });
+        return result;
+    }
+}
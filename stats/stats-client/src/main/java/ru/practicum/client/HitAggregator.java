@@ -0,0 +1,144 @@
+package ru.practicum.client;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import ru.practicum.dto.EndpointHitDto;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+@Slf4j
+public class HitAggregator implements AutoCloseable {
+    private final StatsClientProperties.Aggregate properties;
+    private final Consumer<List<EndpointHitDto>> batchSender;
+    private final ScheduledExecutorService flusher;
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final long bucket;
+    private volatile Map<HitKey, LongAdder> counters = new ConcurrentHashMap<>();
+
+    public HitAggregator(StatsClientProperties.Aggregate properties, Consumer<List<EndpointHitDto>> batchSender) {
+        this.properties = properties;
+        this.batchSender = batchSender;
+        this.bucket = Math.max(1, properties.getBucket().toSeconds());
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stats-hit-aggregator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getFlushInterval().toMillis();
+        flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void add(EndpointHitDto endpointHitDto) {
+        long seconds = endpointHitDto.getTimestamp().toEpochSecond(ZoneOffset.UTC);
+        HitKey key = new HitKey(endpointHitDto.getApp(), endpointHitDto.getUri(), endpointHitDto.getIp(),
+                seconds - Math.floorMod(seconds, bucket));
+        int size;
+        swapLock.readLock().lock();
+        try {
+            counters.computeIfAbsent(key, k -> new LongAdder())
+                    .add(endpointHitDto.getCount() == null ? 1 : endpointHitDto.getCount());
+            size = counters.size();
+        } finally {
+            swapLock.readLock().unlock();
+        }
+        if (size >= properties.getMaxKeys() && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    private void flush() {
+        flushRequested.set(false);
+        Map<HitKey, LongAdder> flushing;
+        swapLock.writeLock().lock();
+        try {
+            flushing = counters;
+            counters = new ConcurrentHashMap<>();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        if (flushing.isEmpty()) {
+            return;
+        }
+        List<EndpointHitDto> batch = new ArrayList<>(properties.getBatchSize());
+        long total = 0;
+        for (Map.Entry<HitKey, LongAdder> entry : flushing.entrySet()) {
+            long remaining = entry.getValue().sum();
+            total += remaining;
+            while (remaining > 0) {
+                int count = (int) Math.min(remaining, EndpointHitDto.MAX_COUNT);
+                batch.add(entry.getKey().toEndpointHitDto(count));
+                remaining -= count;
+                if (batch.size() == properties.getBatchSize()) {
+                    send(batch);
+                    batch = new ArrayList<>(properties.getBatchSize());
+                }
+            }
+        }
+        send(batch);
+        log.debug("Отправлено {} EndpointHit в виде {} агрегированных записей", total, flushing.size());
+    }
+
+    private void send(List<EndpointHitDto> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            batchSender.accept(batch);
+        } catch (RuntimeException e) {
+            log.warn("Не удалось отправить {} агрегированных EndpointHit на сервер статистики: {}", batch.size(),
+                    e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(properties.getShutdownTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                flusher.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            flusher.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        log.info("Агрегатор статистики остановлен");
+    }
+
+    @Value
+    private static class HitKey {
+        String app;
+        String uri;
+        String ip;
+        long bucket;
+
+        EndpointHitDto toEndpointHitDto(int count) {
+            return EndpointHitDto.builder()
+                    .app(app)
+                    .uri(uri)
+                    .ip(ip)
+                    .timestamp(LocalDateTime.ofEpochSecond(bucket, 0, ZoneOffset.UTC))
+                    .count(count == 1 ? null : count)
+                    .build();
+        }
+    }
+}
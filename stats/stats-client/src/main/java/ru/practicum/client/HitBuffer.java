@@ -0,0 +1,124 @@
+package ru.practicum.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+import ru.practicum.dto.EndpointHitDto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+@Slf4j
+public class HitBuffer implements AutoCloseable {
+    private final BlockingQueue<EndpointHitDto> queue;
+    private final StatsClientProperties.Async properties;
+    private final Consumer<List<EndpointHitDto>> batchSender;
+    private final Consumer<EndpointHitDto> spillSender;
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public HitBuffer(StatsClientProperties.Async properties, Consumer<List<EndpointHitDto>> batchSender,
+                     @Nullable Consumer<EndpointHitDto> spillSender) {
+        if (properties.getOverflowPolicy() == OverflowPolicy.SPILL && spillSender == null) {
+            throw new IllegalStateException("Политика переполнения SPILL требует stats-client.spool.enabled=true");
+        }
+        this.properties = properties;
+        this.queue = new ArrayBlockingQueue<>(properties.getCapacity());
+        this.batchSender = batchSender;
+        this.spillSender = spillSender;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stats-hit-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getFlushInterval().toMillis();
+        flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void add(EndpointHitDto endpointHitDto) {
+        if (!enqueue(endpointHitDto)) {
+            handleOverflow(endpointHitDto);
+        }
+        if (queue.size() >= properties.getBatchSize() && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    private boolean enqueue(EndpointHitDto endpointHitDto) {
+        if (properties.getOverflowPolicy() != OverflowPolicy.BLOCK) {
+            return queue.offer(endpointHitDto);
+        }
+        try {
+            return queue.offer(endpointHitDto, properties.getOfferTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void handleOverflow(EndpointHitDto endpointHitDto) {
+        if (properties.getOverflowPolicy() == OverflowPolicy.SPILL) {
+            spillSender.accept(endpointHitDto);
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void flush() {
+        flushRequested.set(false);
+        List<EndpointHitDto> batch = new ArrayList<>(properties.getBatchSize());
+        do {
+            batch.clear();
+            queue.drainTo(batch, properties.getBatchSize());
+            send(batch);
+        } while (queue.size() >= properties.getBatchSize());
+        long droppedHits = dropped.getAndSet(0);
+        if (droppedHits > 0) {
+            log.warn("Очередь статистики переполнена, отброшено {} EndpointHit", droppedHits);
+        }
+    }
+
+    private void send(List<EndpointHitDto> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            batchSender.accept(batch);
+        } catch (RuntimeException e) {
+            log.warn("Не удалось отправить {} EndpointHit на сервер статистики: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(properties.getShutdownTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                flusher.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            flusher.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        List<EndpointHitDto> batch = new ArrayList<>(properties.getBatchSize());
+        while (!queue.isEmpty()) {
+            batch.clear();
+            queue.drainTo(batch, properties.getBatchSize());
+            send(batch);
+        }
+        log.info("Буфер статистики остановлен");
+    }
+}
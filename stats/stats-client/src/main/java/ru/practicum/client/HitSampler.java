@@ -0,0 +1,65 @@
+package ru.practicum.client;
+
+import org.springframework.lang.Nullable;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import ru.practicum.dto.EndpointHitDto;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class HitSampler {
+    private static final int MAX_CACHED_URIS = 10_000;
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+    private final List<StatsClientProperties.SamplingRule> rules;
+    private final Map<String, Integer> rates = new ConcurrentHashMap<>();
+
+    public HitSampler(StatsClientProperties.Sampling properties) {
+        this.rules = List.copyOf(properties.getRules());
+        for (StatsClientProperties.SamplingRule rule : rules) {
+            if (rule.getPattern() == null || rule.getRate() < 1) {
+                throw new IllegalArgumentException("Некорректное правило выборки посещений: " + rule.getPattern()
+                        + " 1/" + rule.getRate());
+            }
+        }
+    }
+
+    @Nullable
+    public EndpointHitDto sample(EndpointHitDto endpointHitDto) {
+        int rate = rate(endpointHitDto.getUri());
+        if (rate == 1) {
+            return endpointHitDto;
+        }
+        if (ThreadLocalRandom.current().nextInt(rate) != 0) {
+            return null;
+        }
+        long count = (long) rate * (endpointHitDto.getCount() == null ? 1 : endpointHitDto.getCount());
+        return EndpointHitDto.builder()
+                .app(endpointHitDto.getApp())
+                .uri(endpointHitDto.getUri())
+                .ip(endpointHitDto.getIp())
+                .timestamp(endpointHitDto.getTimestamp())
+                .count((int) Math.min(count, EndpointHitDto.MAX_COUNT))
+                .build();
+    }
+
+    private int rate(String uri) {
+        Integer rate = rates.get(uri);
+        if (rate != null) {
+            return rate;
+        }
+        rate = 1;
+        for (StatsClientProperties.SamplingRule rule : rules) {
+            if (pathMatcher.match(rule.getPattern(), uri)) {
+                rate = rule.getRate();
+                break;
+            }
+        }
+        if (rates.size() < MAX_CACHED_URIS) {
+            rates.put(uri, rate);
+        }
+        return rate;
+    }
+}
@@ -0,0 +1,283 @@
+package ru.practicum.client;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.practicum.dto.EndpointHitDto;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Журнал EndpointHit в отображаемых в память файлах-сегментах.
+ * Запись: длина (int), app, uri, ip (short длина + UTF-8), timestamp (секунды UTC) и необязательный count (int),
+ * который присутствует, если длина записи больше суммы предыдущих полей.
+ * Нулевая длина означает конец записанных данных сегмента.
+ */
+@Slf4j
+public class HitSpool implements AutoCloseable {
+    private static final String SEGMENT_PREFIX = "hits-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String CURSOR_FILE = "cursor";
+    private static final int CURSOR_SIZE = Long.BYTES + Integer.BYTES;
+    private final StatsClientProperties.Spool properties;
+    private final Consumer<List<EndpointHitDto>> sender;
+    private final Path directory;
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private final MappedByteBuffer cursor;
+    private final ScheduledExecutorService drainer;
+    private final AtomicLong dropped = new AtomicLong();
+    private long writeSegment;
+    private int writeOffset;
+    private long readSegment;
+    private int readOffset;
+    private long drainSegment;
+    private int drainOffset;
+    private long unforcedSegment;
+
+    public HitSpool(StatsClientProperties.Spool properties, Consumer<List<EndpointHitDto>> sender) {
+        this.properties = properties;
+        this.sender = sender;
+        this.directory = properties.getDirectory();
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                files.map(path -> path.getFileName().toString())
+                        .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                        .forEach(name -> openSegment(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                                name.length() - SEGMENT_SUFFIX.length()))));
+            }
+            cursor = map(directory.resolve(CURSOR_FILE), CURSOR_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (segments.isEmpty()) {
+            openSegment(Math.max(1, cursor.getLong(0)));
+        }
+        writeSegment = segments.lastKey();
+        unforcedSegment = writeSegment;
+        writeOffset = findEnd(segments.lastEntry().getValue());
+        readSegment = cursor.getLong(0);
+        readOffset = cursor.getInt(Long.BYTES);
+        if (!segments.containsKey(readSegment)) {
+            readSegment = segments.firstKey();
+            readOffset = 0;
+        }
+        this.drainer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stats-spool-drainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long drainInterval = properties.getDrainInterval().toMillis();
+        drainer.scheduleWithFixedDelay(this::drain, drainInterval, drainInterval, TimeUnit.MILLISECONDS);
+        long fsyncInterval = properties.getFsyncInterval().toMillis();
+        drainer.scheduleWithFixedDelay(this::force, fsyncInterval, fsyncInterval, TimeUnit.MILLISECONDS);
+        log.info("Журнал статистики открыт в {}, сегментов: {}", directory, segments.size());
+    }
+
+    public void append(EndpointHitDto endpointHitDto) {
+        appendAll(List.of(endpointHitDto));
+    }
+
+    public synchronized void appendAll(List<EndpointHitDto> endpointHitDtos) {
+        for (EndpointHitDto endpointHitDto : endpointHitDtos) {
+            byte[] app = endpointHitDto.getApp().getBytes(StandardCharsets.UTF_8);
+            byte[] uri = endpointHitDto.getUri().getBytes(StandardCharsets.UTF_8);
+            byte[] ip = endpointHitDto.getIp().getBytes(StandardCharsets.UTF_8);
+            int length = 3 * Short.BYTES + app.length + uri.length + ip.length + Long.BYTES
+                    + (endpointHitDto.getCount() == null ? 0 : Integer.BYTES);
+            if (!reserve(Integer.BYTES + length)) {
+                dropped.incrementAndGet();
+                continue;
+            }
+            MappedByteBuffer segment = segments.get(writeSegment);
+            segment.position(writeOffset + Integer.BYTES);
+            putString(segment, app);
+            putString(segment, uri);
+            putString(segment, ip);
+            segment.putLong(endpointHitDto.getTimestamp().toEpochSecond(ZoneOffset.UTC));
+            if (endpointHitDto.getCount() != null) {
+                segment.putInt(endpointHitDto.getCount());
+            }
+            segment.putInt(writeOffset, length);
+            writeOffset += Integer.BYTES + length;
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return readSegment == writeSegment && readOffset == writeOffset;
+    }
+
+    private boolean reserve(int size) {
+        int segmentSize = (int) properties.getSegmentSize().toBytes();
+        if (size + Integer.BYTES > segmentSize) {
+            return false;
+        }
+        if (writeOffset + size + Integer.BYTES <= segmentSize) {
+            return true;
+        }
+        if (segments.size() >= properties.getMaxSegments()) {
+            return false;
+        }
+        writeSegment++;
+        writeOffset = 0;
+        openSegment(writeSegment);
+        return true;
+    }
+
+    private void drain() {
+        try {
+            List<EndpointHitDto> batch = new ArrayList<>(properties.getBatchSize());
+            while (true) {
+                batch.clear();
+                read(batch);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                sender.accept(batch);
+                commit();
+            }
+        } catch (RuntimeException e) {
+            log.debug("Сервер статистики недоступен, журнал будет отправлен позже: {}", e.getMessage());
+        }
+        long droppedHits = dropped.getAndSet(0);
+        if (droppedHits > 0) {
+            log.warn("Журнал статистики заполнен, отброшено {} EndpointHit", droppedHits);
+        }
+    }
+
+    private synchronized void read(List<EndpointHitDto> batch) {
+        long segment = readSegment;
+        int offset = readOffset;
+        while (batch.size() < properties.getBatchSize()) {
+            MappedByteBuffer buffer = segments.get(segment);
+            int length = offset + Integer.BYTES <= buffer.capacity() ? buffer.getInt(offset) : 0;
+            if (length == 0) {
+                Long next = segments.higherKey(segment);
+                if (next == null) {
+                    break;
+                }
+                segment = next;
+                offset = 0;
+                continue;
+            }
+            ByteBuffer reader = buffer.duplicate();
+            reader.position(offset + Integer.BYTES);
+            EndpointHitDto endpointHitDto = EndpointHitDto.builder()
+                    .app(getString(reader))
+                    .uri(getString(reader))
+                    .ip(getString(reader))
+                    .timestamp(LocalDateTime.ofEpochSecond(reader.getLong(), 0, ZoneOffset.UTC))
+                    .build();
+            if (reader.position() < offset + Integer.BYTES + length) {
+                endpointHitDto.setCount(reader.getInt());
+            }
+            batch.add(endpointHitDto);
+            offset += Integer.BYTES + length;
+        }
+        drainSegment = segment;
+        drainOffset = offset;
+    }
+
+    private synchronized void commit() {
+        for (Long segment : new ArrayList<>(segments.headMap(drainSegment).keySet())) {
+            deleteSegment(segment);
+        }
+        readSegment = drainSegment;
+        readOffset = drainOffset;
+        cursor.putLong(0, readSegment);
+        cursor.putInt(Long.BYTES, readOffset);
+    }
+
+    private void force() {
+        List<MappedByteBuffer> dirty;
+        synchronized (this) {
+            dirty = new ArrayList<>(segments.tailMap(unforcedSegment).values());
+            unforcedSegment = writeSegment;
+        }
+        dirty.forEach(MappedByteBuffer::force);
+        cursor.force();
+    }
+
+    @Override
+    public void close() {
+        drainer.shutdown();
+        try {
+            if (!drainer.awaitTermination(properties.getDrainInterval().toMillis(), TimeUnit.MILLISECONDS)) {
+                drainer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            drainer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        force();
+        log.info("Журнал статистики закрыт");
+    }
+
+    private void openSegment(long sequence) {
+        try {
+            segments.put(sequence, map(segmentPath(sequence), (int) properties.getSegmentSize().toBytes()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void deleteSegment(long sequence) {
+        segments.remove(sequence);
+        try {
+            Files.deleteIfExists(segmentPath(sequence));
+        } catch (IOException e) {
+            log.warn("Не удалось удалить сегмент журнала статистики {}: {}", sequence, e.getMessage());
+        }
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static int findEnd(MappedByteBuffer segment) {
+        int offset = 0;
+        while (offset + Integer.BYTES <= segment.capacity()) {
+            int length = segment.getInt(offset);
+            if (length <= 0) {
+                break;
+            }
+            offset += Integer.BYTES + length;
+        }
+        return offset;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] value = new byte[buffer.getShort() & 0xffff];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,70 @@
+package ru.practicum.client;
+
+import lombok.experimental.UtilityClass;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import java.util.concurrent.TimeUnit;
+
+@UtilityClass
+public class HttpClientFactory {
+    public HttpComponentsClientHttpRequestFactory createRequestFactory(StatsClientProperties.Http properties) {
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setMaxConnTotal(properties.getMaxConnections())
+                .setMaxConnPerRoute(properties.getMaxConnectionsPerRoute())
+                .setKeepAliveStrategy(keepAliveStrategy(properties))
+                .evictIdleConnections(properties.getKeepAlive().toMillis(), TimeUnit.MILLISECONDS)
+                .setDefaultRequestConfig(requestConfig(properties))
+                .build();
+        return new HttpComponentsClientHttpRequestFactory(httpClient);
+    }
+
+    public CloseableHttpAsyncClient createAsyncClient(StatsClientProperties.Http properties) {
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setConnectTimeout((int) properties.getConnectTimeout().toMillis())
+                .setSoTimeout((int) properties.getReadTimeout().toMillis())
+                .setSoKeepAlive(true)
+                .build();
+        PoolingNHttpClientConnectionManager connectionManager;
+        try {
+            connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig));
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("Не удалось запустить HTTP клиент статистики", e);
+        }
+        connectionManager.setMaxTotal(properties.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(properties.getMaxConnectionsPerRoute());
+        CloseableHttpAsyncClient httpClient = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy(properties))
+                .setDefaultRequestConfig(requestConfig(properties))
+                .build();
+        httpClient.start();
+        return httpClient;
+    }
+
+    private RequestConfig requestConfig(StatsClientProperties.Http properties) {
+        return RequestConfig.custom()
+                .setConnectTimeout((int) properties.getConnectTimeout().toMillis())
+                .setSocketTimeout((int) properties.getReadTimeout().toMillis())
+                .setConnectionRequestTimeout((int) properties.getConnectionRequestTimeout().toMillis())
+                .build();
+    }
+
+    private ConnectionKeepAliveStrategy keepAliveStrategy(StatsClientProperties.Http properties) {
+        long keepAlive = properties.getKeepAlive().toMillis();
+        return (response, context) -> {
+            long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAlive) : keepAlive;
+        };
+    }
+}
@@ -0,0 +1,101 @@
+package ru.practicum.client;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "stats-client")
+public class StatsClientProperties {
+    private final Async async = new Async();
+    private final Query query = new Query();
+    private final Spool spool = new Spool();
+    private final Http http = new Http();
+    private final Coalesce coalesce = new Coalesce();
+    private final Aggregate aggregate = new Aggregate();
+    private final Sampling sampling = new Sampling();
+    private WireFormat wireFormat = WireFormat.SMILE;
+
+    @Getter
+    @Setter
+    public static class Async {
+        private boolean enabled = false;
+        private int capacity = 10_000;
+        private int batchSize = 500;
+        private Duration flushInterval = Duration.ofSeconds(1);
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+        private Duration offerTimeout = Duration.ofMillis(50);
+        private Duration shutdownTimeout = Duration.ofSeconds(10);
+    }
+
+    @Getter
+    @Setter
+    public static class Spool {
+        private boolean enabled = false;
+        private Path directory = Path.of(System.getProperty("java.io.tmpdir"), "stats-spool");
+        private DataSize segmentSize = DataSize.ofMegabytes(16);
+        private int maxSegments = 8;
+        private Duration fsyncInterval = Duration.ofSeconds(1);
+        private Duration drainInterval = Duration.ofSeconds(1);
+        private int batchSize = 500;
+    }
+
+    @Getter
+    @Setter
+    public static class Query {
+        private int postThreshold = 2000;
+    }
+
+    @Getter
+    @Setter
+    public static class Http {
+        private int maxConnections = 64;
+        private int maxConnectionsPerRoute = 64;
+        private Duration connectTimeout = Duration.ofMillis(500);
+        private Duration readTimeout = Duration.ofSeconds(2);
+        private Duration connectionRequestTimeout = Duration.ofMillis(200);
+        private Duration keepAlive = Duration.ofSeconds(30);
+        private Duration deadline = Duration.ofSeconds(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Coalesce {
+        private boolean enabled = true;
+        private Duration window = Duration.ofSeconds(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Aggregate {
+        private boolean enabled = false;
+        private Duration bucket = Duration.ofSeconds(1);
+        private Duration flushInterval = Duration.ofSeconds(1);
+        private int maxKeys = 100_000;
+        private int batchSize = 500;
+        private Duration shutdownTimeout = Duration.ofSeconds(10);
+    }
+
+    @Getter
+    @Setter
+    public static class Sampling {
+        private boolean enabled = false;
+        private List<SamplingRule> rules = new ArrayList<>();
+    }
+
+    @Getter
+    @Setter
+    public static class SamplingRule {
+        private String pattern;
+        private int rate = 1;
+    }
+}
@@ -0,0 +1,25 @@
+package ru.practicum.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.function.Supplier;
+
+@Getter
+@RequiredArgsConstructor
+public enum WireFormat {
+    JSON(MediaType.APPLICATION_JSON, JsonFactory::new),
+    SMILE(new MediaType("application", "x-jackson-smile"), SmileFactory::new);
+
+    private final MediaType mediaType;
+    private final Supplier<JsonFactory> factory;
+
+    public ObjectMapper createObjectMapper(Jackson2ObjectMapperBuilder builder) {
+        return builder.factory(factory.get()).build();
+    }
+}
@@ -1,10 +1,13 @@
 package ru.practicum.dto;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.*;
 
+import javax.validation.constraints.Max;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
 import javax.validation.constraints.Size;
 import java.time.LocalDateTime;
 
@@ -14,6 +17,7 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @AllArgsConstructor
 public class EndpointHitDto {
+    public static final int MAX_COUNT = 1_000_000;
     private Long id;
     @NotBlank
     @Size(max = 255)
@@ -21,10 +25,18 @@ public class EndpointHitDto {
     @NotBlank
     @Size(max = 255)
     private String uri;
+    /**
+     * Адрес клиента. Сервер сохраняет первый адрес из списка через запятую, а значение, не являющееся
+     * IPv4 или IPv6 адресом, заменяет на "0.0.0.0".
+     */
     @NotBlank
     @Size(max = 255)
     private String ip;
     @NotNull
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd HH:mm:ss")
     private LocalDateTime timestamp;
+    @Positive
+    @Max(MAX_COUNT)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer count;
 }
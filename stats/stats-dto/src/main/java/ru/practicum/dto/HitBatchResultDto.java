@@ -0,0 +1,12 @@
+package ru.practicum.dto;
+
+import lombok.*;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class HitBatchResultDto {
+    private Long count;
+}
@@ -0,0 +1,17 @@
+package ru.practicum.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class HitChangesDto {
+    private String cursor;
+    private boolean hasMore;
+    private boolean reset;
+    private List<ViewStatsDto> changes;
+}
@@ -0,0 +1,26 @@
+package ru.practicum.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Ряды посещений в колоночном виде: hits[i][k] - количество посещений apps[i]/uris[i] за интервал,
+ * начинающийся в start + k * interval.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TimeSeriesDto {
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime start;
+    private TimeInterval interval;
+    private int buckets;
+    private List<String> apps;
+    private List<String> uris;
+    private List<long[]> hits;
+}
@@ -1,5 +1,6 @@
 package ru.practicum.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.*;
 
 @Getter
@@ -11,4 +12,6 @@ public class ViewStatsDto {
     private String app;
     private String uri;
     private Long hits;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean approximate;
 }
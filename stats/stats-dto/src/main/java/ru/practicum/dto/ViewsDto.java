@@ -0,0 +1,16 @@
+package ru.practicum.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ViewsDto {
+    private long[] eventIds;
+    private long[] hits;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean approximate;
+}
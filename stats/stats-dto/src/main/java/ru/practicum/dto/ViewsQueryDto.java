@@ -0,0 +1,29 @@
+package ru.practicum.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.*;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.time.LocalDateTime;
+
+/**
+ * Запрос просмотров событий: starts[i] - начало периода для eventIds[i] в секундах с начала эпохи (UTC).
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ViewsQueryDto {
+    @NotNull
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime end;
+    @NotNull
+    @Size(min = 1)
+    private long[] eventIds;
+    @NotNull
+    private long[] starts;
+    private boolean unique;
+    private boolean approximate;
+}
@@ -0,0 +1,115 @@
+package ru.practicum.stats.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "stats")
+public class StatsServerProperties {
+    private final Ingest ingest = new Ingest();
+    private final Hll hll = new Hll();
+    private final Partition partition = new Partition();
+    private final Hot hot = new Hot();
+    private final Compaction compaction = new Compaction();
+    private final Top top = new Top();
+    private final Views views = new Views();
+    private final Changes changes = new Changes();
+    private final Columnar columnar = new Columnar();
+    private final Archive archive = new Archive();
+    private final GroupCommit groupCommit = new GroupCommit();
+    private final TimeSeries timeSeries = new TimeSeries();
+
+    @Getter
+    @Setter
+    public static class Ingest {
+        private int batchSize = 1000;
+    }
+
+    @Getter
+    @Setter
+    public static class Hll {
+        private Duration flushInterval = Duration.ofSeconds(5);
+    }
+
+    @Getter
+    @Setter
+    public static class Partition {
+        private int premakeDays = 7;
+        private int retentionDays = 0;
+    }
+
+    @Getter
+    @Setter
+    public static class Hot {
+        private boolean enabled = true;
+        private int capacity = 10_000;
+        private Duration admitInterval = Duration.ofSeconds(5);
+    }
+
+    @Getter
+    @Setter
+    public static class Compaction {
+        private boolean enabled = true;
+        private Duration after = Duration.ofDays(30);
+        private int chunkSize = 10_000;
+    }
+
+    @Getter
+    @Setter
+    public static class Top {
+        private int capacity = 1000;
+        private Duration flushInterval = Duration.ofSeconds(5);
+    }
+
+    @Getter
+    @Setter
+    public static class Views {
+        private String uriPattern = "/events/%d";
+    }
+
+    @Getter
+    @Setter
+    public static class Changes {
+        private int maxLimit = 100_000;
+    }
+
+    @Getter
+    @Setter
+    public static class Columnar {
+        private boolean enabled = false;
+        private Duration window = Duration.ofHours(24);
+        private int chunkSize = 4096;
+        private Path snapshotPath = Path.of(System.getProperty("java.io.tmpdir"), "stats-columnar.snapshot");
+        private Duration snapshotInterval = Duration.ofMinutes(5);
+    }
+
+    @Getter
+    @Setter
+    public static class Archive {
+        private boolean enabled = false;
+        private Path directory = Path.of(System.getProperty("java.io.tmpdir"), "stats-archive");
+    }
+
+    @Getter
+    @Setter
+    public static class GroupCommit {
+        private boolean enabled = false;
+        private boolean fireAndForget = false;
+        private Duration maxDelay = Duration.ofMillis(5);
+        private int maxBatch = 1000;
+        private int capacity = 65_536;
+    }
+
+    @Getter
+    @Setter
+    public static class TimeSeries {
+        private int maxBuckets = 10_000;
+    }
+}
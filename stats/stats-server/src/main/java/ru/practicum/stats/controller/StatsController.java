@@ -1,9 +1,12 @@
 package ru.practicum.stats.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.validation.annotation.Validated;
@@ -12,24 +15,78 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.HitChangesDto;
+import ru.practicum.dto.HitBatchResultDto;
+import ru.practicum.dto.StatsBatchQueryDto;
+import ru.practicum.dto.StatsQueryDto;
+import ru.practicum.dto.TimeInterval;
+import ru.practicum.dto.TimeSeriesDto;
+import ru.practicum.dto.UriStartDto;
 import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.dto.ViewsDto;
+import ru.practicum.dto.ViewsQueryDto;
+import ru.practicum.stats.config.StatsServerProperties;
+import ru.practicum.stats.service.HitBatcher;
 import ru.practicum.stats.service.StatsService;
 
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
 import javax.validation.Valid;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 @Controller
 @Slf4j
 @RequiredArgsConstructor
 @Validated
 public class StatsController {
+    private static final String SMILE_VALUE = "application/x-jackson-smile";
     private final StatsService statsService;
+    private final HitBatcher hitBatcher;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final StatsServerProperties properties;
 
     @PostMapping("/hit")
-    public ResponseEntity<EndpointHitDto> createHit(@RequestBody @Valid EndpointHitDto endpointHitDto) {
+    public CompletableFuture<ResponseEntity<EndpointHitDto>> createHit(
+            @RequestBody @Valid EndpointHitDto endpointHitDto) {
         log.info("Получен POST запрос по эндпоинту '/hit' на добавление endpointHitDto {}", endpointHitDto);
-        return new ResponseEntity<>(statsService.createHit(endpointHitDto), HttpStatus.CREATED);
+        if (!hitBatcher.isEnabled()) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(statsService.createHit(endpointHitDto),
+                    HttpStatus.CREATED));
+        }
+        CompletableFuture<EndpointHitDto> saved = hitBatcher.submit(endpointHitDto);
+        if (properties.getGroupCommit().isFireAndForget()) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(endpointHitDto, HttpStatus.ACCEPTED));
+        }
+        return saved.thenApply(endpointHit -> new ResponseEntity<>(endpointHit, HttpStatus.CREATED));
+    }
+
+    @PostMapping(value = "/hits", consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
+    public ResponseEntity<HitBatchResultDto> createHits(@RequestBody @Valid List<EndpointHitDto> endpointHitDtos) {
+        log.info("Получен POST запрос по эндпоинту '/hits' на добавление {} endpointHitDto", endpointHitDtos.size());
+        return new ResponseEntity<>(new HitBatchResultDto(statsService.createHits(endpointHitDtos.iterator())),
+                HttpStatus.CREATED);
+    }
+
+    @PostMapping(value = "/hits", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<HitBatchResultDto> createHitsStream(InputStream body) throws IOException {
+        log.info("Получен POST запрос по эндпоинту '/hits' на добавление потока endpointHitDto");
+        Iterator<EndpointHitDto> endpointHitDtos = objectMapper.readerFor(EndpointHitDto.class).readValues(body);
+        return new ResponseEntity<>(new HitBatchResultDto(statsService.createHits(validate(endpointHitDtos))),
+                HttpStatus.CREATED);
     }
 
     @GetMapping("/stats")
@@ -37,8 +94,120 @@ public class StatsController {
             @RequestParam(name = "start") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
             @RequestParam(name = "end") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
             @RequestParam(name = "uris", required = false) List<String> uris,
-            @RequestParam(name = "unique", defaultValue = "false") Boolean unique) {
+            @RequestParam(name = "unique", defaultValue = "false") Boolean unique,
+            @RequestParam(name = "approximate", defaultValue = "false") Boolean approximate) {
         log.info("Получен GET запрос по эндпоинту '/stats' на получение статистики");
-        return ResponseEntity.ok(statsService.getStats(start, end, uris, unique));
+        return ResponseEntity.ok(statsService.getStats(start, end, uris, unique, approximate));
+    }
+
+    @PostMapping("/stats/query")
+    public ResponseEntity<List<ViewStatsDto>> queryStats(@RequestBody @Valid StatsQueryDto statsQueryDto) {
+        log.info("Получен POST запрос по эндпоинту '/stats/query' на получение статистики по {} uri",
+                statsQueryDto.getUris() == null ? 0 : statsQueryDto.getUris().size());
+        return ResponseEntity.ok(statsService.getStats(statsQueryDto.getStart(), statsQueryDto.getEnd(),
+                statsQueryDto.getUris(), statsQueryDto.isUnique(), statsQueryDto.isApproximate()));
+    }
+
+    @PostMapping("/stats/batch")
+    public ResponseEntity<List<ViewStatsDto>> batchStats(@RequestBody @Valid StatsBatchQueryDto statsBatchQueryDto) {
+        log.info("Получен POST запрос по эндпоинту '/stats/batch' на получение статистики по {} uri",
+                statsBatchQueryDto.getUris().size());
+        Map<String, LocalDateTime> uriStarts = new HashMap<>();
+        for (UriStartDto uriStartDto : statsBatchQueryDto.getUris()) {
+            uriStarts.merge(uriStartDto.getUri(), uriStartDto.getStart(),
+                    (current, start) -> start.isBefore(current) ? start : current);
+        }
+        return ResponseEntity.ok(statsService.getStats(uriStarts, statsBatchQueryDto.getEnd(),
+                statsBatchQueryDto.isUnique(), statsBatchQueryDto.isApproximate()));
+    }
+
+    @PostMapping("/stats/views")
+    public ResponseEntity<ViewsDto> getViews(@RequestBody @Valid ViewsQueryDto viewsQueryDto) {
+        log.info("Получен POST запрос по эндпоинту '/stats/views' на получение просмотров {} событий",
+                viewsQueryDto.getEventIds().length);
+        return ResponseEntity.ok(statsService.getViews(viewsQueryDto.getEventIds(), viewsQueryDto.getStarts(),
+                viewsQueryDto.getEnd(), viewsQueryDto.isUnique(), viewsQueryDto.isApproximate()));
+    }
+
+    @GetMapping("/stats/top")
+    public ResponseEntity<List<ViewStatsDto>> getTopStats(
+            @RequestParam(name = "start") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+            @RequestParam(name = "end") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+            @RequestParam(name = "limit", defaultValue = "10") Integer limit,
+            @RequestParam(name = "exact", defaultValue = "false") Boolean exact) {
+        log.info("Получен GET запрос по эндпоинту '/stats/top' на получение {} самых популярных uri", limit);
+        return ResponseEntity.ok(statsService.getTopStats(start, end, limit, exact));
+    }
+
+    @GetMapping("/stats/changes")
+    public ResponseEntity<HitChangesDto> getChanges(
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestParam(name = "limit", defaultValue = "10000") Integer limit) {
+        log.info("Получен GET запрос по эндпоинту '/stats/changes' на получение изменений после cursor {}", cursor);
+        return ResponseEntity.ok(statsService.getChanges(cursor, limit));
+    }
+
+    @GetMapping("/stats/timeseries")
+    public ResponseEntity<TimeSeriesDto> getTimeSeries(
+            @RequestParam(name = "start") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+            @RequestParam(name = "end") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+            @RequestParam(name = "uris") List<String> uris,
+            @RequestParam(name = "interval", defaultValue = "HOUR") TimeInterval interval,
+            @RequestParam(name = "unique", defaultValue = "false") Boolean unique) {
+        log.info("Получен GET запрос по эндпоинту '/stats/timeseries' на получение рядов посещений {} uri",
+                uris.size());
+        return ResponseEntity.ok(statsService.getTimeSeries(start, end, uris, interval, unique));
+    }
+
+    @GetMapping(value = "/stats", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void getStatsStream(
+            @RequestParam(name = "start") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+            @RequestParam(name = "end") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+            @RequestParam(name = "uris", required = false) List<String> uris,
+            @RequestParam(name = "unique", defaultValue = "false") Boolean unique,
+            @RequestParam(name = "approximate", defaultValue = "false") Boolean approximate,
+            HttpServletResponse response) throws IOException {
+        log.info("Получен GET запрос по эндпоинту '/stats' на получение потока статистики");
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        ObjectWriter writer = objectMapper.writerFor(ViewStatsDto.class);
+        OutputStream body = response.getOutputStream();
+        try {
+            statsService.streamStats(start, end, uris, unique, approximate, viewStatsDto -> {
+                try {
+                    body.write(writer.writeValueAsBytes(viewStatsDto));
+                    body.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        body.flush();
+    }
+
+    private Iterator<EndpointHitDto> validate(Iterator<EndpointHitDto> endpointHitDtos) {
+        return new Iterator<>() {
+            private long line;
+
+            @Override
+            public boolean hasNext() {
+                return endpointHitDtos.hasNext();
+            }
+
+            @Override
+            public EndpointHitDto next() {
+                EndpointHitDto endpointHitDto = endpointHitDtos.next();
+                line++;
+                Set<ConstraintViolation<EndpointHitDto>> violations = validator.validate(endpointHitDto);
+                if (!violations.isEmpty()) {
+                    throw new ConstraintViolationException("Некорректный endpointHitDto в записи " + line + ": " +
+                            violations.stream()
+                                    .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                                    .collect(Collectors.joining(", ")), violations);
+                }
+                return endpointHitDto;
+            }
+        };
     }
 }
@@ -1,12 +1,17 @@
 package ru.practicum.stats.exception;
 
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
+
+import javax.validation.ConstraintViolationException;
 
 @RestControllerAdvice
 @Slf4j
@@ -21,9 +26,11 @@ public class ErrorHandler {
     }
 
     @ExceptionHandler({MethodArgumentNotValidException.class, IllegalArgumentException.class,
-            MissingServletRequestParameterException.class})
+            MissingServletRequestParameterException.class, HttpMessageNotReadableException.class,
+            RuntimeJsonMappingException.class, ConstraintViolationException.class,
+            MethodArgumentTypeMismatchException.class})
     @ResponseStatus(HttpStatus.BAD_REQUEST)
-    public ErrorResponse handleException(RuntimeException e) {
+    public ErrorResponse handleException(Exception e) {
         log.warn("Некорректные данные от пользователя 400 {}", e.getMessage(), e);
         return new ErrorResponse(
                 e.getMessage()
@@ -3,6 +3,7 @@ package ru.practicum.stats.mapper;
 import lombok.experimental.UtilityClass;
 import ru.practicum.dto.EndpointHitDto;
 import ru.practicum.stats.model.EndpointHit;
+import ru.practicum.stats.utils.IpAddresses;
 
 @UtilityClass
 public class EndpointHitMapper {
@@ -13,6 +14,7 @@ public class EndpointHitMapper {
                 .uri(endpointHit.getUri())
                 .ip(endpointHit.getIp())
                 .timestamp(endpointHit.getTimestamp())
+                .count(endpointHit.getCount() == 1 ? null : endpointHit.getCount())
                 .build();
     }
 
@@ -21,8 +23,9 @@ public class EndpointHitMapper {
                 .id(endpointHitDto.getId())
                 .app(endpointHitDto.getApp())
                 .uri(endpointHitDto.getUri())
-                .ip(endpointHitDto.getIp())
+                .ip(IpAddresses.normalize(endpointHitDto.getIp()))
                 .timestamp(endpointHitDto.getTimestamp())
+                .count(endpointHitDto.getCount() == null ? 1 : endpointHitDto.getCount())
                 .build();
     }
 }
@@ -0,0 +1,85 @@
+package ru.practicum.stats.model;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+public class BucketPlan {
+    private final Map<TimeBucket, List<TimeRange>> bucketRanges = new EnumMap<>(TimeBucket.class);
+    private final List<TimeRange> rawRanges = new ArrayList<>();
+    private final List<TimeRange> compactedRanges = new ArrayList<>();
+    private TimeRange archivedRange;
+
+    private BucketPlan() {
+    }
+
+    public static BucketPlan of(LocalDateTime start, LocalDateTime end, LocalDateTime horizon) {
+        return of(start, end, horizon, TimeBucket.values());
+    }
+
+    public static BucketPlan of(LocalDateTime start, LocalDateTime end, LocalDateTime horizon,
+                                TimeBucket... buckets) {
+        return of(start, end, horizon, null, buckets);
+    }
+
+    public static BucketPlan of(LocalDateTime start, LocalDateTime end, LocalDateTime horizon,
+                                LocalDateTime archivedFrom, TimeBucket... buckets) {
+        BucketPlan plan = new BucketPlan();
+        LocalDateTime to = end.truncatedTo(ChronoUnit.SECONDS).plusSeconds(1);
+        LocalDateTime from = start;
+        if (horizon != null && start.isBefore(horizon)) {
+            LocalDateTime compactedTo = to.isBefore(horizon) ? to : horizon;
+            if (archivedFrom != null && !start.isBefore(archivedFrom)) {
+                plan.archivedRange = new TimeRange(start, compactedTo);
+                plan.split(horizon, to, buckets, buckets.length - 1);
+                return plan;
+            }
+            LocalDateTime dayTo = compactedTo.truncatedTo(ChronoUnit.DAYS);
+            plan.compactedRanges.add(new TimeRange(start.truncatedTo(ChronoUnit.DAYS),
+                    dayTo.isEqual(compactedTo) ? dayTo : dayTo.plusDays(1)));
+            from = horizon;
+        }
+        plan.split(from, to, buckets, buckets.length - 1);
+        return plan;
+    }
+
+    public List<TimeRange> getRanges(TimeBucket bucket) {
+        return bucketRanges.getOrDefault(bucket, Collections.emptyList());
+    }
+
+    public List<TimeRange> getRawRanges() {
+        return rawRanges;
+    }
+
+    public List<TimeRange> getCompactedRanges() {
+        return compactedRanges;
+    }
+
+    public TimeRange getArchivedRange() {
+        return archivedRange;
+    }
+
+    private void split(LocalDateTime from, LocalDateTime to, TimeBucket[] buckets, int index) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        if (index < 0) {
+            rawRanges.add(new TimeRange(from, to));
+            return;
+        }
+        TimeBucket bucket = buckets[index];
+        LocalDateTime bucketFrom = bucket.ceil(from);
+        LocalDateTime bucketTo = bucket.floor(to);
+        if (!bucketFrom.isBefore(bucketTo)) {
+            split(from, to, buckets, index - 1);
+            return;
+        }
+        bucketRanges.computeIfAbsent(bucket, key -> new ArrayList<>()).add(new TimeRange(bucketFrom, bucketTo));
+        split(from, bucketFrom, buckets, index - 1);
+        split(bucketTo, to, buckets, index - 1);
+    }
+}
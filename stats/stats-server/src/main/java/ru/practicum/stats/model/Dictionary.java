@@ -0,0 +1,14 @@
+package ru.practicum.stats.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public enum Dictionary {
+    APP("apps", "name"),
+    URI("uris", "uri");
+
+    private final String table;
+    private final String column;
+}
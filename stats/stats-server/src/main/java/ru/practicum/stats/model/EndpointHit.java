@@ -2,26 +2,22 @@ package ru.practicum.stats.model;
 
 import lombok.*;
 
-import javax.persistence.*;
 import java.time.LocalDateTime;
 
-@Entity
 @Getter
 @Setter
 @Builder
 @AllArgsConstructor
 @NoArgsConstructor
-@Table(name = "hits")
 public class EndpointHit {
-    @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
-    @Column(name = "app", nullable = false)
     private String app;
-    @Column(name = "uri", nullable = false)
     private String uri;
-    @Column(name = "ip", nullable = false)
     private String ip;
-    @Column(name = "created_date", nullable = false)
     private LocalDateTime timestamp;
+    private Integer appId;
+    private Integer uriId;
+    private long ipHash;
+    @Builder.Default
+    private int count = 1;
 }
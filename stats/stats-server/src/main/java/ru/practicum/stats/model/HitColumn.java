@@ -0,0 +1,164 @@
+package ru.practicum.stats.model;
+
+import ru.practicum.dto.LongLongMap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Посещения одной пары app/uri в виде трех колонок, разбитых на блоки фиксированного размера:
+ * время в секундах с начала эпохи, 64-битный хеш ip и количество одинаковых посещений в записи. Для каждого
+ * блока хранится сумма количеств, поэтому число посещений в диапазоне считается по суммам блоков и
+ * частичным суммам двух крайних блоков. Последний блок выделяется с малой емкостью и растет удвоением.
+ * Колонки упорядочены по времени: опоздавшее посещение сдвигается на свое место при добавлении,
+ * поэтому диапазоны ищутся двоичным поиском.
+ */
+public class HitColumn {
+    private static final int INITIAL_CHUNK_SIZE = 16;
+    private final int chunkSize;
+    private final List<long[]> times = new ArrayList<>();
+    private final List<long[]> ipHashes = new ArrayList<>();
+    private final List<int[]> counts = new ArrayList<>();
+    private long[] chunkTotals = new long[INITIAL_CHUNK_SIZE];
+    private int size;
+
+    public HitColumn(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void add(long time, long ipHash, int count) {
+        int chunk = size / chunkSize;
+        if (chunk == times.size()) {
+            times.add(new long[Math.min(chunkSize, INITIAL_CHUNK_SIZE)]);
+            ipHashes.add(new long[Math.min(chunkSize, INITIAL_CHUNK_SIZE)]);
+            counts.add(new int[Math.min(chunkSize, INITIAL_CHUNK_SIZE)]);
+            if (chunk == chunkTotals.length) {
+                chunkTotals = Arrays.copyOf(chunkTotals, chunk * 2);
+            }
+        } else if (size % chunkSize == times.get(chunk).length) {
+            int length = Math.min(chunkSize, times.get(chunk).length * 2);
+            times.set(chunk, Arrays.copyOf(times.get(chunk), length));
+            ipHashes.set(chunk, Arrays.copyOf(ipHashes.get(chunk), length));
+            counts.set(chunk, Arrays.copyOf(counts.get(chunk), length));
+        }
+        int index = size;
+        while (index > 0 && time(index - 1) > time) {
+            set(index, time(index - 1), ipHash(index - 1), count(index - 1));
+            index--;
+        }
+        set(index, time, ipHash, count);
+        size++;
+    }
+
+    public synchronized long count(long from, long to) {
+        return countBefore(lowerBound(to)) - countBefore(lowerBound(from));
+    }
+
+    public synchronized long countUnique(long from, long to) {
+        int start = lowerBound(from);
+        int end = lowerBound(to);
+        LongLongMap seen = new LongLongMap(Math.min(end - start, 1 << 16));
+        for (int i = start; i < end; i++) {
+            seen.put(ipHash(i), 0);
+        }
+        return seen.size();
+    }
+
+    public synchronized int trim(long before) {
+        if (size > 0 && time(size - 1) < before) {
+            int removed = size;
+            times.clear();
+            ipHashes.clear();
+            counts.clear();
+            Arrays.fill(chunkTotals, 0);
+            size = 0;
+            return removed;
+        }
+        int removed = 0;
+        while (size > chunkSize && times.get(0)[chunkSize - 1] < before) {
+            times.remove(0);
+            ipHashes.remove(0);
+            counts.remove(0);
+            System.arraycopy(chunkTotals, 1, chunkTotals, 0, chunkTotals.length - 1);
+            chunkTotals[chunkTotals.length - 1] = 0;
+            removed += chunkSize;
+            size -= chunkSize;
+        }
+        return removed;
+    }
+
+    public synchronized void writeTo(DataOutput output) throws IOException {
+        output.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            output.writeLong(time(i));
+            output.writeLong(ipHash(i));
+            output.writeInt(count(i));
+        }
+    }
+
+    public void readFrom(DataInput input) throws IOException {
+        int count = input.readInt();
+        for (int i = 0; i < count; i++) {
+            add(input.readLong(), input.readLong(), input.readInt());
+        }
+    }
+
+    private long countBefore(int index) {
+        long total = 0;
+        int chunk = index / chunkSize;
+        for (int i = 0; i < chunk; i++) {
+            total += chunkTotals[i];
+        }
+        int offset = index % chunkSize;
+        if (offset > 0) {
+            int[] chunkCounts = counts.get(chunk);
+            for (int i = 0; i < offset; i++) {
+                total += chunkCounts[i];
+            }
+        }
+        return total;
+    }
+
+    private int lowerBound(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (time(middle) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private long time(int index) {
+        return times.get(index / chunkSize)[index % chunkSize];
+    }
+
+    private long ipHash(int index) {
+        return ipHashes.get(index / chunkSize)[index % chunkSize];
+    }
+
+    private int count(int index) {
+        return counts.get(index / chunkSize)[index % chunkSize];
+    }
+
+    private void set(int index, long time, long ipHash, int count) {
+        int chunk = index / chunkSize;
+        int offset = index % chunkSize;
+        chunkTotals[chunk] += count - counts.get(chunk)[offset];
+        times.get(chunk)[offset] = time;
+        ipHashes.get(chunk)[offset] = ipHash;
+        counts.get(chunk)[offset] = count;
+    }
+}
@@ -0,0 +1,409 @@
+package ru.practicum.stats.model;
+
+import lombok.Getter;
+import ru.practicum.dto.LongLongMap;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Неизменяемый файл с посещениями за одни сутки. Посещения сгруппированы по паре uri/app, внутри группы
+ * упорядочены по времени. Колонки: номер ip в словаре хешей сегмента (1, 2 или 4 байта в зависимости от
+ * размера словаря) и время. Время хранится блоками по {@value #BLOCK_SIZE} посещений: в таблице блоков -
+ * секунды от начала суток первого посещения и смещение блока, в самом блоке - приращения к предыдущему
+ * посещению в формате varint. Запись может обозначать несколько одинаковых посещений: для блоков, где
+ * это встречается, количества хранятся отдельной колонкой varint, а в таблице блоков - сумма количеств
+ * в группе до начала блока. Для каждой группы хранятся смещение, размер, сумма количеств, первый блок и
+ * минимальное/максимальное время, для сегмента - общие минимум и максимум. Читается через mmap.
+ */
+public class HitSegment {
+    private static final int MAGIC = 0x48534547;
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 48;
+    private static final int GROUP_SIZE = 36;
+    private static final int BLOCK_SIZE = 128;
+    private static final int BLOCK_ENTRY_SIZE = 20;
+    @Getter
+    private final Path path;
+    @Getter
+    private final LocalDate day;
+    @Getter
+    private final long transactionId;
+    private final long dayStart;
+    private final int minTime;
+    private final int maxTime;
+    private final int ipWidth;
+    private final int[] groupUriIds;
+    private final int[] groupAppIds;
+    private final int[] groupOffsets;
+    private final int[] groupCounts;
+    private final int[] groupMinTimes;
+    private final int[] groupMaxTimes;
+    private final int[] groupBlocks;
+    private final long[] groupTotals;
+    private final int[] blockTimes;
+    private final int[] blockOffsets;
+    private final int[] blockCountOffsets;
+    private final long[] blockCountsBefore;
+    private final ByteBuffer buffer;
+    private final int ipsPosition;
+    private final int ipIndexesPosition;
+    private final int timesPosition;
+    private final int countsPosition;
+
+    private HitSegment(Path path, MappedByteBuffer buffer) {
+        this.path = path;
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalStateException("Некорректный сегмент архива " + path);
+        }
+        dayStart = buffer.getLong(8);
+        day = LocalDate.ofEpochDay(Math.floorDiv(dayStart, 86_400));
+        transactionId = buffer.getLong(16);
+        int hitCount = buffer.getInt(24);
+        minTime = buffer.getInt(28);
+        maxTime = buffer.getInt(32);
+        int ipCount = buffer.getInt(36);
+        int blockCount = buffer.getInt(40);
+        int timeBytes = buffer.getInt(44);
+        int groupCount = buffer.getInt(HEADER_SIZE);
+        ipWidth = ipWidth(ipCount);
+        groupUriIds = new int[groupCount];
+        groupAppIds = new int[groupCount];
+        groupOffsets = new int[groupCount];
+        groupCounts = new int[groupCount];
+        groupMinTimes = new int[groupCount];
+        groupMaxTimes = new int[groupCount];
+        groupBlocks = new int[groupCount];
+        groupTotals = new long[groupCount];
+        int position = HEADER_SIZE + 4;
+        for (int i = 0; i < groupCount; i++, position += GROUP_SIZE) {
+            groupUriIds[i] = buffer.getInt(position);
+            groupAppIds[i] = buffer.getInt(position + 4);
+            groupOffsets[i] = buffer.getInt(position + 8);
+            groupCounts[i] = buffer.getInt(position + 12);
+            groupMinTimes[i] = buffer.getInt(position + 16);
+            groupMaxTimes[i] = buffer.getInt(position + 20);
+            groupBlocks[i] = buffer.getInt(position + 24);
+            groupTotals[i] = buffer.getLong(position + 28);
+        }
+        ipsPosition = position;
+        position += ipCount * Long.BYTES;
+        blockTimes = new int[blockCount];
+        blockOffsets = new int[blockCount];
+        blockCountOffsets = new int[blockCount];
+        blockCountsBefore = new long[blockCount];
+        for (int i = 0; i < blockCount; i++, position += BLOCK_ENTRY_SIZE) {
+            blockTimes[i] = buffer.getInt(position);
+            blockOffsets[i] = buffer.getInt(position + 4);
+            blockCountOffsets[i] = buffer.getInt(position + 8);
+            blockCountsBefore[i] = buffer.getLong(position + 12);
+        }
+        ipIndexesPosition = position;
+        timesPosition = ipIndexesPosition + hitCount * ipWidth;
+        countsPosition = timesPosition + timeBytes;
+    }
+
+    public static HitSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new HitSegment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Записывает сегмент атомарно: сначала во временный файл с fsync, затем переименованием.
+     */
+    public static void write(Path path, LocalDate day, long transactionId, int hitCount, int[] uriIds, int[] appIds,
+                             int[] times, long[] ipHashes, int[] counts) throws IOException {
+        long[] ips = Arrays.copyOf(ipHashes, hitCount);
+        Arrays.sort(ips);
+        int ipCount = 0;
+        for (int i = 0; i < hitCount; i++) {
+            if (i == 0 || ips[i] != ips[i - 1]) {
+                ips[ipCount++] = ips[i];
+            }
+        }
+        long[] keys = new long[hitCount];
+        for (int i = 0; i < hitCount; i++) {
+            keys[i] = ((long) uriIds[i] << 32) | appIds[i];
+        }
+        long[] groupKeys = keys.clone();
+        Arrays.sort(groupKeys);
+        int groupCount = 0;
+        for (int i = 0; i < hitCount; i++) {
+            if (i == 0 || groupKeys[i] != groupKeys[i - 1]) {
+                groupKeys[groupCount++] = groupKeys[i];
+            }
+        }
+        LongLongMap groupIndexes = new LongLongMap(groupCount);
+        for (int i = 0; i < groupCount; i++) {
+            groupIndexes.put(groupKeys[i], i);
+        }
+        int[] offsets = new int[groupCount + 1];
+        for (int i = 0; i < hitCount; i++) {
+            offsets[(int) groupIndexes.get(keys[i], 0) + 1]++;
+        }
+        for (int i = 0; i < groupCount; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] next = Arrays.copyOf(offsets, groupCount);
+        long[] packed = new long[hitCount];
+        for (int i = 0; i < hitCount; i++) {
+            packed[next[(int) groupIndexes.get(keys[i], 0)]++] = ((long) times[i] << 32) | i;
+        }
+        for (int i = 0; i < groupCount; i++) {
+            Arrays.sort(packed, offsets[i], offsets[i + 1]);
+        }
+        int[] groupBlocks = new int[groupCount];
+        int blockCount = 0;
+        for (int i = 0; i < groupCount; i++) {
+            groupBlocks[i] = blockCount;
+            blockCount += (offsets[i + 1] - offsets[i] + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        }
+        int[] blockTimes = new int[blockCount];
+        int[] blockOffsets = new int[blockCount];
+        int[] blockCountOffsets = new int[blockCount];
+        long[] blockCountsBefore = new long[blockCount];
+        long[] groupTotals = new long[groupCount];
+        ByteArrayOutputStream timeDeltas = new ByteArrayOutputStream(hitCount);
+        ByteArrayOutputStream countColumn = new ByteArrayOutputStream();
+        for (int i = 0; i < groupCount; i++) {
+            int previous = 0;
+            for (int hit = offsets[i]; hit < offsets[i + 1]; hit++) {
+                int time = (int) (packed[hit] >>> 32);
+                int index = hit - offsets[i];
+                if (index % BLOCK_SIZE == 0) {
+                    int block = groupBlocks[i] + index / BLOCK_SIZE;
+                    blockTimes[block] = time;
+                    blockOffsets[block] = timeDeltas.size();
+                    blockCountsBefore[block] = groupTotals[i];
+                    blockCountOffsets[block] = writeCounts(countColumn, packed, counts, hit,
+                            Math.min(hit + BLOCK_SIZE, offsets[i + 1]));
+                } else {
+                    writeVarint(timeDeltas, time - previous);
+                }
+                groupTotals[i] += counts[(int) packed[hit]];
+                previous = time;
+            }
+        }
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream stream = Channels.newOutputStream(channel);
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(day.atStartOfDay().toEpochSecond(ZoneOffset.UTC));
+            output.writeLong(transactionId);
+            output.writeInt(hitCount);
+            output.writeInt(hitCount == 0 ? 0 : Arrays.stream(times, 0, hitCount).min().orElse(0));
+            output.writeInt(hitCount == 0 ? 0 : Arrays.stream(times, 0, hitCount).max().orElse(0));
+            output.writeInt(ipCount);
+            output.writeInt(blockCount);
+            output.writeInt(timeDeltas.size());
+            output.writeInt(groupCount);
+            for (int i = 0; i < groupCount; i++) {
+                output.writeInt((int) (groupKeys[i] >>> 32));
+                output.writeInt((int) groupKeys[i]);
+                output.writeInt(offsets[i]);
+                output.writeInt(offsets[i + 1] - offsets[i]);
+                output.writeInt(offsets[i] == offsets[i + 1] ? 0 : (int) (packed[offsets[i]] >>> 32));
+                output.writeInt(offsets[i] == offsets[i + 1] ? 0 : (int) (packed[offsets[i + 1] - 1] >>> 32));
+                output.writeInt(groupBlocks[i]);
+                output.writeLong(groupTotals[i]);
+            }
+            for (int i = 0; i < ipCount; i++) {
+                output.writeLong(ips[i]);
+            }
+            for (int i = 0; i < blockCount; i++) {
+                output.writeInt(blockTimes[i]);
+                output.writeInt(blockOffsets[i]);
+                output.writeInt(blockCountOffsets[i]);
+                output.writeLong(blockCountsBefore[i]);
+            }
+            int width = ipWidth(ipCount);
+            for (long hit : packed) {
+                int ipIndex = Arrays.binarySearch(ips, 0, ipCount, ipHashes[(int) hit]);
+                if (width == 1) {
+                    output.writeByte(ipIndex);
+                } else if (width == 2) {
+                    output.writeShort(ipIndex);
+                } else {
+                    output.writeInt(ipIndex);
+                }
+            }
+            timeDeltas.writeTo(output);
+            countColumn.writeTo(output);
+            output.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public boolean overlaps(long from, long to) {
+        return dayStart + minTime < to && dayStart + maxTime >= from;
+    }
+
+    public void countHits(Integer uriId, long from, long to, Consumer<HitCount> consumer) {
+        forEachGroup(uriId, from, to, (group, bounds) -> consumer.accept(new HitCount(groupAppIds[group],
+                groupUriIds[group], countBefore(group, bounds[1]) - countBefore(group, bounds[0]))));
+    }
+
+    public void findIpHashes(Integer uriId, long from, long to, BiConsumer<StatsKey, Long> consumer) {
+        forEachGroup(uriId, from, to, (group, bounds) -> {
+            StatsKey key = new StatsKey(groupAppIds[group], groupUriIds[group]);
+            for (int i = bounds[0]; i < bounds[1]; i++) {
+                consumer.accept(key, buffer.getLong(ipsPosition + ipIndex(i) * Long.BYTES));
+            }
+        });
+    }
+
+    private void forEachGroup(Integer uriId, long from, long to, BiConsumer<Integer, int[]> consumer) {
+        int first = 0;
+        int last = groupUriIds.length;
+        if (uriId != null) {
+            first = lowerBound(uriId);
+            last = lowerBound(uriId + 1);
+        }
+        for (int group = first; group < last; group++) {
+            if (dayStart + groupMinTimes[group] >= to || dayStart + groupMaxTimes[group] < from) {
+                continue;
+            }
+            int start = timeBound(group, from);
+            int end = timeBound(group, to);
+            if (start < end) {
+                consumer.accept(group, new int[]{start, end});
+            }
+        }
+    }
+
+    private int lowerBound(int uriId) {
+        int low = 0;
+        int high = groupUriIds.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (groupUriIds[middle] < uriId) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int timeBound(int group, long time) {
+        int firstBlock = groupBlocks[group];
+        int low = firstBlock;
+        int high = firstBlock + (groupCounts[group] + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (dayStart + blockTimes[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low == firstBlock) {
+            return groupOffsets[group];
+        }
+        int block = low - 1;
+        int hit = groupOffsets[group] + (block - firstBlock) * BLOCK_SIZE + 1;
+        int end = Math.min(hit - 1 + BLOCK_SIZE, groupOffsets[group] + groupCounts[group]);
+        int position = timesPosition + blockOffsets[block];
+        long current = dayStart + blockTimes[block];
+        for (; hit < end; hit++) {
+            int delta = 0;
+            int shift = 0;
+            byte next;
+            do {
+                next = buffer.get(position++);
+                delta |= (next & 0x7f) << shift;
+                shift += 7;
+            } while (next < 0);
+            current += delta;
+            if (current >= time) {
+                return hit;
+            }
+        }
+        return end;
+    }
+
+    private long countBefore(int group, int hit) {
+        int index = hit - groupOffsets[group];
+        if (index == groupCounts[group]) {
+            return groupTotals[group];
+        }
+        int block = groupBlocks[group] + index / BLOCK_SIZE;
+        int skipped = index % BLOCK_SIZE;
+        long count = blockCountsBefore[block] + skipped;
+        if (blockCountOffsets[block] < 0) {
+            return count;
+        }
+        int position = countsPosition + blockCountOffsets[block];
+        for (int i = 0; i < skipped; i++) {
+            int extra = 0;
+            int shift = 0;
+            byte next;
+            do {
+                next = buffer.get(position++);
+                extra |= (next & 0x7f) << shift;
+                shift += 7;
+            } while (next < 0);
+            count += extra;
+        }
+        return count;
+    }
+
+    private int ipIndex(int hit) {
+        if (ipWidth == 1) {
+            return buffer.get(ipIndexesPosition + hit) & 0xff;
+        }
+        if (ipWidth == 2) {
+            return buffer.getShort(ipIndexesPosition + hit * 2) & 0xffff;
+        }
+        return buffer.getInt(ipIndexesPosition + hit * 4);
+    }
+
+    private static int writeCounts(ByteArrayOutputStream output, long[] packed, int[] counts, int from, int to) {
+        boolean single = true;
+        for (int hit = from; hit < to && single; hit++) {
+            single = counts[(int) packed[hit]] == 1;
+        }
+        if (single) {
+            return -1;
+        }
+        int offset = output.size();
+        for (int hit = from; hit < to; hit++) {
+            writeVarint(output, counts[(int) packed[hit]] - 1);
+        }
+        return offset;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream output, int value) {
+        while ((value & ~0x7f) != 0) {
+            output.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    private static int ipWidth(int ipCount) {
+        return ipCount <= 256 ? 1 : ipCount <= 65_536 ? 2 : 4;
+    }
+}
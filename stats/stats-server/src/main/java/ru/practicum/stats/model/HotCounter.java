@@ -0,0 +1,43 @@
+package ru.practicum.stats.model;
+
+import ru.practicum.stats.sketch.HyperLogLog;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class HotCounter {
+    private final LongAdder hits = new LongAdder();
+    private final HyperLogLog sketch;
+
+    public HotCounter(long hits, HyperLogLog sketch) {
+        this.hits.add(hits);
+        this.sketch = sketch;
+    }
+
+    public void add(long ipHash, int count) {
+        hits.add(count);
+        synchronized (sketch) {
+            sketch.addHash(ipHash);
+        }
+    }
+
+    public void seed(long seedHits, HyperLogLog seedSketch) {
+        hits.add(seedHits);
+        synchronized (sketch) {
+            sketch.merge(seedSketch);
+        }
+    }
+
+    public void subtract(long expired) {
+        hits.add(-expired);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long estimateUnique() {
+        synchronized (sketch) {
+            return sketch.estimate();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package ru.practicum.stats.model;
+
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Getter
+public class HotUri {
+    private final Map<Integer, HotCounter> counters = new ConcurrentHashMap<>();
+    private volatile long lastAccess;
+
+    public HotUri(long lastAccess) {
+        this.lastAccess = lastAccess;
+    }
+
+    public void touch(long time) {
+        lastAccess = time;
+    }
+}
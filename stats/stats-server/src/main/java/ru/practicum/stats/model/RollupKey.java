@@ -0,0 +1,16 @@
+package ru.practicum.stats.model;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+
+@Getter
+@EqualsAndHashCode
+@AllArgsConstructor
+public class RollupKey {
+    private final int appId;
+    private final int uriId;
+    private final LocalDateTime bucket;
+}
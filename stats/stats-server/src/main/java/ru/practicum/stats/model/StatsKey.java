@@ -0,0 +1,13 @@
+package ru.practicum.stats.model;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+@Getter
+@EqualsAndHashCode
+@AllArgsConstructor
+public class StatsKey {
+    private final int appId;
+    private final int uriId;
+}
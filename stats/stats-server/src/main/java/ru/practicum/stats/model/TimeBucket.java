@@ -0,0 +1,26 @@
+package ru.practicum.stats.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+@Getter
+@RequiredArgsConstructor
+public enum TimeBucket {
+    MINUTE(ChronoUnit.MINUTES, "hits_minute"),
+    HOUR(ChronoUnit.HOURS, "hits_hour");
+
+    private final ChronoUnit unit;
+    private final String table;
+
+    public LocalDateTime floor(LocalDateTime time) {
+        return time.truncatedTo(unit);
+    }
+
+    public LocalDateTime ceil(LocalDateTime time) {
+        LocalDateTime floor = floor(time);
+        return floor.isEqual(time) ? floor : floor.plus(1, unit);
+    }
+}
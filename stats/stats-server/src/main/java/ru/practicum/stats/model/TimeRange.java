@@ -0,0 +1,19 @@
+package ru.practicum.stats.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+
+@Getter
+@ToString
+@AllArgsConstructor
+public class TimeRange {
+    private final LocalDateTime from;
+    private final LocalDateTime to;
+
+    public boolean isEmpty() {
+        return !from.isBefore(to);
+    }
+}
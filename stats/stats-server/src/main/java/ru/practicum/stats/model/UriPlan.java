@@ -0,0 +1,11 @@
+package ru.practicum.stats.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class UriPlan {
+    private final int uriId;
+    private final BucketPlan plan;
+}
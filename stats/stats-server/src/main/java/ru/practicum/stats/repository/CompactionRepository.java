@@ -0,0 +1,151 @@
+package ru.practicum.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.stats.model.HitCount;
+import ru.practicum.stats.model.RollupKey;
+import ru.practicum.stats.sketch.HyperLogLog;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+@Repository
+@RequiredArgsConstructor
+public class CompactionRepository {
+    private static final String FOLD_HOURS = "WITH moved AS (DELETE FROM hits_hour WHERE bucket < ? " +
+            "RETURNING app_id, uri_id, bucket, hits) " +
+            "INSERT INTO hits_day (app_id, uri_id, bucket, hits) " +
+            "SELECT app_id, uri_id, DATE_TRUNC('day', bucket) AS day, SUM(hits) FROM moved " +
+            "GROUP BY app_id, uri_id, day ORDER BY day, app_id, uri_id " +
+            "ON CONFLICT (bucket, app_id, uri_id) DO UPDATE SET hits = hits_day.hits + EXCLUDED.hits";
+    private static final String UPSERT_DAY_SKETCH = "INSERT INTO hits_day (app_id, uri_id, bucket, hits, sketch) " +
+            "VALUES (?, ?, ?, 0, ?) ON CONFLICT (bucket, app_id, uri_id) DO UPDATE SET sketch = EXCLUDED.sketch";
+    private static final String DELETE_EXPIRED_ROLLUPS = "WITH days AS (DELETE FROM hits_day WHERE bucket < ? " +
+            "RETURNING app_id, uri_id, hits), hours AS (DELETE FROM hits_hour WHERE bucket < ? " +
+            "RETURNING app_id, uri_id, hits) " +
+            "SELECT app_id, uri_id, SUM(hits) AS hits FROM (SELECT * FROM days UNION ALL SELECT * FROM hours) t " +
+            "GROUP BY app_id, uri_id";
+    private static final String DELETE_HITS = FlushStateRepository.markDeleted("DELETE FROM hits " +
+            "WHERE created_date >= ? AND created_date < ?");
+    private static final String DELETE_HITS_CHUNK = FlushStateRepository.markDeleted("DELETE FROM hits " +
+            "WHERE (id, created_date) IN (SELECT id, created_date FROM hits WHERE created_date < ? LIMIT ?)");
+    private static final int KEYS_PER_QUERY = 1000;
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    public LocalDateTime findHorizon() {
+        List<LocalDateTime> horizons = jdbcTemplate.queryForList("SELECT horizon FROM compaction_state WHERE id = 1",
+                LocalDateTime.class);
+        return horizons.isEmpty() ? null : horizons.get(0);
+    }
+
+    public LocalDateTime findArchivedFrom() {
+        List<LocalDateTime> archivedFrom = jdbcTemplate.queryForList(
+                "SELECT archived_from FROM compaction_state WHERE id = 1", LocalDateTime.class);
+        return archivedFrom.isEmpty() ? null : archivedFrom.get(0);
+    }
+
+    public void saveHorizon(LocalDateTime horizon, LocalDateTime archivedFrom) {
+        jdbcTemplate.update("INSERT INTO compaction_state (id, horizon, archived_from) VALUES (1, ?, ?) " +
+                        "ON CONFLICT (id) DO UPDATE SET horizon = EXCLUDED.horizon, " +
+                        "archived_from = EXCLUDED.archived_from",
+                Timestamp.valueOf(horizon), archivedFrom == null ? null : Timestamp.valueOf(archivedFrom));
+    }
+
+    public long findTransactionId() {
+        Long transactionId = jdbcTemplate.queryForObject("SELECT txid_current()", Long.class);
+        return transactionId == null ? 0 : transactionId;
+    }
+
+    public String findTransactionStatus(long transactionId) {
+        return jdbcTemplate.queryForObject("SELECT txid_status(?)", String.class, transactionId);
+    }
+
+    public List<LocalDate> findHitDays(LocalDateTime before) {
+        return jdbcTemplate.queryForList("SELECT DISTINCT CAST(created_date AS DATE) AS day FROM hits " +
+                "WHERE created_date < ? ORDER BY day", LocalDate.class, Timestamp.valueOf(before));
+    }
+
+    public int deleteHits(LocalDateTime from, LocalDateTime to) {
+        return countDeleted(jdbcTemplate.queryForObject(DELETE_HITS, Integer.class, Timestamp.valueOf(from),
+                Timestamp.valueOf(to)));
+    }
+
+    public LocalDateTime findFirstHour() {
+        return jdbcTemplate.queryForObject("SELECT MIN(bucket) FROM hits_hour", LocalDateTime.class);
+    }
+
+    public int foldHours(LocalDateTime before) {
+        return jdbcTemplate.update(FOLD_HOURS, Timestamp.valueOf(before));
+    }
+
+    public int deleteMinutes(LocalDateTime before) {
+        return jdbcTemplate.update("DELETE FROM hits_minute WHERE bucket < ?", Timestamp.valueOf(before));
+    }
+
+    public void takeHourSketches(LocalDateTime before, BiConsumer<RollupKey, HyperLogLog> consumer) {
+        jdbcTemplate.query("DELETE FROM hll_hour WHERE bucket < ? RETURNING app_id, uri_id, bucket, sketch", rs -> {
+            consumer.accept(new RollupKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                    rs.getTimestamp("bucket").toLocalDateTime()), HyperLogLog.fromBytes(rs.getBytes("sketch")));
+        }, Timestamp.valueOf(before));
+    }
+
+    public Map<RollupKey, HyperLogLog> findDaySketchesForUpdate(List<RollupKey> keys) {
+        Map<RollupKey, HyperLogLog> sketches = new HashMap<>();
+        for (int from = 0; from < keys.size(); from += KEYS_PER_QUERY) {
+            List<Object[]> values = keys.subList(from, Math.min(keys.size(), from + KEYS_PER_QUERY)).stream()
+                    .map(key -> new Object[]{Timestamp.valueOf(key.getBucket()), key.getAppId(), key.getUriId()})
+                    .collect(Collectors.toList());
+            namedParameterJdbcTemplate.query("SELECT app_id, uri_id, bucket, sketch FROM hits_day " +
+                            "WHERE (bucket, app_id, uri_id) IN (:keys) AND sketch IS NOT NULL FOR UPDATE",
+                    new MapSqlParameterSource("keys", values), rs -> {
+                        sketches.put(new RollupKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                                        rs.getTimestamp("bucket").toLocalDateTime()),
+                                HyperLogLog.fromBytes(rs.getBytes("sketch")));
+                    });
+        }
+        return sketches;
+    }
+
+    public void saveDaySketches(Map<RollupKey, HyperLogLog> sketches) {
+        List<Map.Entry<RollupKey, HyperLogLog>> entries = new ArrayList<>(sketches.entrySet());
+        jdbcTemplate.batchUpdate(UPSERT_DAY_SKETCH, entries, entries.size(), (ps, entry) -> {
+            ps.setInt(1, entry.getKey().getAppId());
+            ps.setInt(2, entry.getKey().getUriId());
+            ps.setTimestamp(3, Timestamp.valueOf(entry.getKey().getBucket()));
+            ps.setBytes(4, entry.getValue().toBytes());
+        });
+    }
+
+    public int deleteHits(LocalDateTime before, int limit) {
+        return countDeleted(jdbcTemplate.queryForObject(DELETE_HITS_CHUNK, Integer.class, Timestamp.valueOf(before),
+                limit));
+    }
+
+    @Transactional
+    public void deleteExpired(LocalDateTime before, Consumer<HitCount> consumer) {
+        Timestamp bucket = Timestamp.valueOf(before);
+        jdbcTemplate.query(DELETE_EXPIRED_ROLLUPS, rs -> {
+            consumer.accept(new HitCount(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits")));
+        }, bucket, bucket);
+        for (String table : List.of("hits_minute", "hll_hour", "top_hour", "top_day")) {
+            jdbcTemplate.update("DELETE FROM " + table + " WHERE bucket < ?", bucket);
+        }
+    }
+
+    private static int countDeleted(Integer deleted) {
+        return deleted == null ? 0 : deleted;
+    }
+}
@@ -0,0 +1,57 @@
+package ru.practicum.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.stats.model.Dictionary;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+@Repository
+@RequiredArgsConstructor
+public class DictionaryRepository {
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    public void findAll(Dictionary dictionary, BiConsumer<Integer, String> consumer) {
+        jdbcTemplate.query("SELECT id, " + dictionary.getColumn() + " FROM " + dictionary.getTable(), rs -> {
+            consumer.accept(rs.getInt(1), rs.getString(2));
+        });
+    }
+
+    public int findMaxId(Dictionary dictionary) {
+        Integer id = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM " + dictionary.getTable(),
+                Integer.class);
+        return id == null ? 0 : id;
+    }
+
+    public Map<String, Integer> findAllByValues(Dictionary dictionary, Collection<String> values) {
+        Map<String, Integer> ids = new HashMap<>();
+        namedParameterJdbcTemplate.query("SELECT id, " + dictionary.getColumn() + " FROM " + dictionary.getTable() +
+                " WHERE " + dictionary.getColumn() + " IN (:values)", new MapSqlParameterSource("values", values), rs -> {
+                    ids.put(rs.getString(2), rs.getInt(1));
+                });
+        return ids;
+    }
+
+    public Map<Integer, String> findAllByIds(Dictionary dictionary, Collection<Integer> ids) {
+        Map<Integer, String> values = new HashMap<>();
+        namedParameterJdbcTemplate.query("SELECT id, " + dictionary.getColumn() + " FROM " + dictionary.getTable() +
+                " WHERE id IN (:ids)", new MapSqlParameterSource("ids", ids), rs -> {
+                    values.put(rs.getInt(1), rs.getString(2));
+                });
+        return values;
+    }
+
+    public Map<String, Integer> saveAll(Dictionary dictionary, Collection<String> values) {
+        jdbcTemplate.update("INSERT INTO " + dictionary.getTable() + " (" + dictionary.getColumn() + ") " +
+                        "SELECT UNNEST(?) ON CONFLICT DO NOTHING",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", values.toArray())));
+        return findAllByValues(dictionary, values);
+    }
+}
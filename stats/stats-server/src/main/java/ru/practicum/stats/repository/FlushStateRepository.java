@@ -0,0 +1,38 @@
+package ru.practicum.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+@RequiredArgsConstructor
+public class FlushStateRepository {
+    public static final String DELETED_HITS = "hits_deleted";
+    private static final String UPSERT_FLUSHED_ID = "ON CONFLICT (name) " +
+            "DO UPDATE SET flushed_id = GREATEST(flush_state.flushed_id, EXCLUDED.flushed_id)";
+    private static final String MARK_DELETED = "INSERT INTO flush_state (name, flushed_id) " +
+            "SELECT '" + DELETED_HITS + "', MAX(id) FROM %s HAVING COUNT(*) > 0 " + UPSERT_FLUSHED_ID;
+    private final JdbcTemplate jdbcTemplate;
+
+    public Long findFlushedId(String name) {
+        List<Long> ids = jdbcTemplate.queryForList("SELECT flushed_id FROM flush_state WHERE name = ?", Long.class,
+                name);
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+
+    public void saveFlushedId(String name, long flushedId) {
+        jdbcTemplate.update("INSERT INTO flush_state (name, flushed_id) VALUES (?, ?) " + UPSERT_FLUSHED_ID,
+                name, flushedId);
+    }
+
+    static String markDeleted(String delete) {
+        return "WITH deleted AS (" + delete + " RETURNING id), mark AS (" + String.format(MARK_DELETED, "deleted") +
+                ") SELECT COUNT(*) FROM deleted";
+    }
+
+    static String markDropped(String table) {
+        return String.format(MARK_DELETED, table);
+    }
+}
@@ -0,0 +1,178 @@
+package ru.practicum.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.dto.TimeInterval;
+import ru.practicum.stats.model.BucketPlan;
+import ru.practicum.stats.model.EndpointHit;
+import ru.practicum.stats.model.HitCount;
+import ru.practicum.stats.model.RollupKey;
+import ru.practicum.stats.model.StatsKey;
+import ru.practicum.stats.model.TimeRange;
+import ru.practicum.stats.model.UriPlan;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+@Repository
+@RequiredArgsConstructor
+public class HitJdbcRepository {
+    private static final String INSERT_HIT = "INSERT INTO hits (id, app_id, uri_id, ip, created_date, hit_count) " +
+            "VALUES (?, ?, ?, CAST(? AS INET), ?, ?)";
+    private static final int FETCH_SIZE = 10_000;
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    public int saveAll(List<EndpointHit> hits) {
+        List<Long> ids = jdbcTemplate.queryForList("SELECT nextval('hits_id_seq') FROM generate_series(1, ?)",
+                Long.class, hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            hits.get(i).setId(ids.get(i));
+        }
+        jdbcTemplate.batchUpdate(INSERT_HIT, hits, hits.size(), (ps, hit) -> {
+            ps.setLong(1, hit.getId());
+            ps.setInt(2, hit.getAppId());
+            ps.setInt(3, hit.getUriId());
+            ps.setString(4, hit.getIp());
+            ps.setTimestamp(5, Timestamp.valueOf(hit.getTimestamp()));
+            ps.setInt(6, hit.getCount());
+        });
+        return hits.size();
+    }
+
+    public void findUniqueStats(List<TimeRange> ranges, List<Integer> uriIds, Consumer<HitCount> consumer) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        String sql = "SELECT app_id, uri_id, COUNT(DISTINCT ip) AS hits FROM hits WHERE " +
+                SqlConditions.timeRanges("created_date", ranges, parameters) +
+                SqlConditions.uriIds(uriIds, parameters) + " GROUP BY app_id, uri_id ORDER BY hits DESC";
+        namedParameterJdbcTemplate.query(sql, parameters, rs -> {
+            consumer.accept(new HitCount(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits")));
+        });
+    }
+
+    public void findUniqueStats(List<UriPlan> plans, Consumer<HitCount> consumer) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        String ranges = SqlConditions.joinUriRanges("hits", "created_date", plans, BucketPlan::getRawRanges,
+                parameters);
+        if (ranges == null) {
+            return;
+        }
+        String sql = "SELECT t.app_id, t.uri_id, COUNT(DISTINCT t.ip) AS hits FROM " + ranges +
+                " GROUP BY t.app_id, t.uri_id ORDER BY hits DESC";
+        namedParameterJdbcTemplate.query(sql, parameters, rs -> {
+            consumer.accept(new HitCount(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits")));
+        });
+    }
+
+    public void findUniqueSeries(TimeRange range, TimeInterval interval, List<Integer> uriIds,
+                                 BiConsumer<RollupKey, Long> consumer) {
+        if (range.isEmpty()) {
+            return;
+        }
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        String sql = "SELECT app_id, uri_id, " + SqlConditions.truncate("created_date", interval) + " AS bucket, " +
+                "COUNT(DISTINCT ip) AS hits FROM hits WHERE " +
+                SqlConditions.timeRanges("created_date", List.of(range), parameters) +
+                SqlConditions.uriIds(uriIds, parameters) + " GROUP BY app_id, uri_id, bucket";
+        namedParameterJdbcTemplate.query(sql, parameters, rs -> {
+            consumer.accept(new RollupKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                    rs.getTimestamp("bucket").toLocalDateTime()), rs.getLong("hits"));
+        });
+    }
+
+    public void findDistinctIps(List<UriPlan> plans, BiConsumer<StatsKey, String> consumer) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        String ranges = SqlConditions.joinUriRanges("hits", "created_date", plans, BucketPlan::getRawRanges,
+                parameters);
+        if (ranges == null) {
+            return;
+        }
+        String sql = "SELECT DISTINCT t.app_id, t.uri_id, host(t.ip) AS ip FROM " + ranges;
+        namedParameterJdbcTemplate.query(sql, parameters, rs -> {
+            consumer.accept(new StatsKey(rs.getInt("app_id"), rs.getInt("uri_id")), rs.getString("ip"));
+        });
+    }
+
+    public void findDistinctIps(List<TimeRange> ranges, List<Integer> uriIds, BiConsumer<StatsKey, String> consumer) {
+        if (ranges.isEmpty()) {
+            return;
+        }
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        String sql = "SELECT DISTINCT app_id, uri_id, host(ip) AS ip FROM hits WHERE " +
+                SqlConditions.timeRanges("created_date", ranges, parameters) +
+                SqlConditions.uriIds(uriIds, parameters);
+        namedParameterJdbcTemplate.query(sql, parameters, rs -> {
+            consumer.accept(new StatsKey(rs.getInt("app_id"), rs.getInt("uri_id")), rs.getString("ip"));
+        });
+    }
+
+    public long findLastId() {
+        Long lastId = jdbcTemplate.queryForObject(
+                "SELECT CASE WHEN is_called THEN last_value ELSE last_value - 1 END FROM hits_id_seq", Long.class);
+        return lastId == null ? 0 : lastId;
+    }
+
+    public List<LocalDateTime> findHoursAfter(long afterId) {
+        return jdbcTemplate.queryForList("SELECT DISTINCT DATE_TRUNC('hour', created_date) AS bucket FROM hits " +
+                "WHERE id > ? ORDER BY bucket", LocalDateTime.class, afterId);
+    }
+
+    public long findPageEnd(long after, long upTo, int limit) {
+        Long pageEnd = jdbcTemplate.queryForObject("SELECT MAX(id) FROM " +
+                "(SELECT id FROM hits WHERE id > ? AND id <= ? ORDER BY id LIMIT ?) page", Long.class,
+                after, upTo, limit);
+        return pageEnd == null ? upTo : pageEnd;
+    }
+
+    public void findChanges(long after, long upTo, Consumer<HitCount> consumer) {
+        jdbcTemplate.query("SELECT app_id, uri_id, SUM(hit_count) AS hits FROM hits WHERE id > ? AND id <= ? " +
+                "GROUP BY app_id, uri_id ORDER BY hits DESC", rs -> {
+            consumer.accept(new HitCount(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits")));
+        }, after, upTo);
+    }
+
+    public void findAll(Consumer<EndpointHit> consumer) {
+        findAll("", consumer);
+    }
+
+    public void findAllSince(LocalDateTime from, long upToId, Consumer<EndpointHit> consumer) {
+        findAll(" WHERE created_date >= ? AND id <= ?", consumer, Timestamp.valueOf(from), upToId);
+    }
+
+    public void findAllAfter(long afterId, long upToId, Consumer<EndpointHit> consumer) {
+        findAll(" WHERE id > ? AND id <= ?", consumer, afterId, upToId);
+    }
+
+    public void findAllBetween(LocalDateTime from, LocalDateTime to, Consumer<EndpointHit> consumer) {
+        findAll(" WHERE created_date >= ? AND created_date < ?", consumer, Timestamp.valueOf(from),
+                Timestamp.valueOf(to));
+    }
+
+    private void findAll(String condition, Consumer<EndpointHit> consumer, Object... parameters) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    "SELECT id, app_id, uri_id, host(ip) AS ip, created_date, hit_count FROM hits" + condition);
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            statement.setFetchSize(FETCH_SIZE);
+            return statement;
+        }, rs -> {
+            consumer.accept(EndpointHit.builder()
+                    .id(rs.getLong("id"))
+                    .appId(rs.getInt("app_id"))
+                    .uriId(rs.getInt("uri_id"))
+                    .ip(rs.getString("ip"))
+                    .timestamp(rs.getTimestamp("created_date").toLocalDateTime())
+                    .count(rs.getInt("hit_count"))
+                    .build());
+        });
+    }
+}
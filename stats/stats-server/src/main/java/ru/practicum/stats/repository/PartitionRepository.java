@@ -0,0 +1,101 @@
+package ru.practicum.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Repository
+@RequiredArgsConstructor
+public class PartitionRepository {
+    private static final String PARTITION_PREFIX = "hits_p";
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final String DELETE_DEFAULT = FlushStateRepository.markDeleted("DELETE FROM hits_default " +
+            "WHERE created_date < ?");
+    private final JdbcTemplate jdbcTemplate;
+
+    public List<LocalDate> findPartitionDays() {
+        return jdbcTemplate.queryForList("SELECT c.relname FROM pg_inherits i " +
+                        "JOIN pg_class c ON c.oid = i.inhrelid " +
+                        "WHERE i.inhparent = 'hits'::regclass AND c.relname LIKE '" + PARTITION_PREFIX + "%'",
+                String.class).stream()
+                .map(name -> LocalDate.parse(name.substring(PARTITION_PREFIX.length()), PARTITION_SUFFIX))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    public List<LocalDate> findDefaultPartitionDays() {
+        return jdbcTemplate.queryForList("SELECT DISTINCT CAST(created_date AS DATE) FROM hits_default",
+                LocalDate.class);
+    }
+
+    @Transactional
+    public void createPartition(LocalDate day) {
+        String name = partitionName(day);
+        Timestamp from = Timestamp.valueOf(day.atStartOfDay());
+        Timestamp to = Timestamp.valueOf(day.plusDays(1).atStartOfDay());
+        jdbcTemplate.execute("LOCK TABLE ONLY hits IN SHARE ROW EXCLUSIVE MODE");
+        jdbcTemplate.execute("LOCK TABLE hits_default IN SHARE ROW EXCLUSIVE MODE");
+        Boolean hasDefaultRows = jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM hits_default " +
+                "WHERE created_date >= ? AND created_date < ?)", Boolean.class, from, to);
+        if (!Boolean.TRUE.equals(hasDefaultRows)) {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF hits " +
+                    "FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+            return;
+        }
+        jdbcTemplate.execute("CREATE TABLE " + name + " (LIKE hits INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+        jdbcTemplate.update("INSERT INTO " + name + " SELECT * FROM hits_default " +
+                "WHERE created_date >= ? AND created_date < ?", from, to);
+        jdbcTemplate.update("DELETE FROM hits_default WHERE created_date >= ? AND created_date < ?", from, to);
+        jdbcTemplate.execute("ALTER TABLE hits ATTACH PARTITION " + name +
+                " FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+    }
+
+    @Transactional
+    public void dropPartition(LocalDate day) {
+        String name = partitionName(day);
+        Boolean exists = jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, name);
+        if (!Boolean.TRUE.equals(exists)) {
+            return;
+        }
+        jdbcTemplate.execute("LOCK TABLE " + name + " IN ACCESS EXCLUSIVE MODE");
+        jdbcTemplate.update(FlushStateRepository.markDropped(name));
+        jdbcTemplate.execute("DROP TABLE " + name);
+    }
+
+    public void lockDay(LocalDate day) {
+        jdbcTemplate.execute("LOCK TABLE hits_default IN SHARE MODE");
+        Boolean exists = jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class,
+                partitionName(day));
+        if (Boolean.TRUE.equals(exists)) {
+            jdbcTemplate.execute("LOCK TABLE " + partitionName(day) + " IN SHARE MODE");
+        }
+    }
+
+    @Transactional
+    public boolean dropPartitionIfEmpty(LocalDate day) {
+        jdbcTemplate.execute("LOCK TABLE ONLY hits IN ACCESS EXCLUSIVE MODE");
+        String name = partitionName(day);
+        Boolean empty = jdbcTemplate.queryForObject("SELECT NOT EXISTS (SELECT 1 FROM " + name + ")", Boolean.class);
+        if (Boolean.TRUE.equals(empty)) {
+            jdbcTemplate.execute("DROP TABLE " + name);
+        }
+        return Boolean.TRUE.equals(empty);
+    }
+
+    public int deleteFromDefaultPartitionBefore(LocalDateTime time) {
+        Integer deleted = jdbcTemplate.queryForObject(DELETE_DEFAULT, Integer.class, Timestamp.valueOf(time));
+        return deleted == null ? 0 : deleted;
+    }
+
+    private static String partitionName(LocalDate day) {
+        return PARTITION_PREFIX + day.format(PARTITION_SUFFIX);
+    }
+}
@@ -0,0 +1,195 @@
+package ru.practicum.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.dto.TimeInterval;
+import ru.practicum.stats.model.BucketPlan;
+import ru.practicum.stats.model.HitCount;
+import ru.practicum.stats.model.RollupKey;
+import ru.practicum.stats.model.TimeBucket;
+import ru.practicum.stats.model.TimeRange;
+import ru.practicum.stats.model.UriPlan;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+@Repository
+@RequiredArgsConstructor
+public class RollupRepository {
+    private static final String UPSERT_ROLLUP = "INSERT INTO %1$s (app_id, uri_id, bucket, hits) VALUES (?, ?, ?, ?) " +
+            "ON CONFLICT (bucket, app_id, uri_id) DO UPDATE SET hits = %1$s.hits + EXCLUDED.hits";
+    private static final Comparator<Map.Entry<RollupKey, Long>> LOCK_ORDER = Comparator
+            .comparing((Map.Entry<RollupKey, Long> entry) -> entry.getKey().getBucket())
+            .thenComparingInt(entry -> entry.getKey().getAppId())
+            .thenComparingInt(entry -> entry.getKey().getUriId());
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    public void increment(TimeBucket bucket, Map<RollupKey, Long> hits) {
+        List<Map.Entry<RollupKey, Long>> entries = new ArrayList<>(hits.entrySet());
+        entries.sort(LOCK_ORDER);
+        jdbcTemplate.batchUpdate(String.format(UPSERT_ROLLUP, bucket.getTable()), entries, entries.size(),
+                (ps, entry) -> {
+                    ps.setInt(1, entry.getKey().getAppId());
+                    ps.setInt(2, entry.getKey().getUriId());
+                    ps.setTimestamp(3, Timestamp.valueOf(entry.getKey().getBucket()));
+                    ps.setLong(4, entry.getValue());
+                });
+    }
+
+    public void findStats(BucketPlan plan, List<Integer> uriIds, Consumer<HitCount> consumer) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        String uriCondition = SqlConditions.uriIds(uriIds, parameters);
+        List<String> parts = new ArrayList<>();
+        for (TimeBucket bucket : TimeBucket.values()) {
+            List<TimeRange> ranges = plan.getRanges(bucket);
+            if (!ranges.isEmpty()) {
+                parts.add("SELECT app_id, uri_id, hits FROM " + bucket.getTable() + " WHERE " +
+                        SqlConditions.timeRanges("bucket", ranges, parameters) + uriCondition);
+            }
+        }
+        if (!plan.getCompactedRanges().isEmpty()) {
+            parts.add("SELECT app_id, uri_id, hits FROM hits_day WHERE " +
+                    SqlConditions.timeRanges("bucket", plan.getCompactedRanges(), parameters) + uriCondition);
+        }
+        if (!plan.getRawRanges().isEmpty()) {
+            parts.add("SELECT app_id, uri_id, SUM(hit_count) AS hits FROM hits WHERE " +
+                    SqlConditions.timeRanges("created_date", plan.getRawRanges(), parameters) + uriCondition +
+                    " GROUP BY app_id, uri_id");
+        }
+        if (!parts.isEmpty()) {
+            sumParts(parts, parameters, consumer);
+        }
+    }
+
+    public void findStats(List<UriPlan> plans, Consumer<HitCount> consumer) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        List<String> parts = new ArrayList<>();
+        for (TimeBucket bucket : TimeBucket.values()) {
+            String ranges = SqlConditions.joinUriRanges(bucket.getTable(), "bucket", plans,
+                    plan -> plan.getRanges(bucket), parameters);
+            if (ranges != null) {
+                parts.add("SELECT t.app_id, t.uri_id, t.hits FROM " + ranges);
+            }
+        }
+        String compactedRanges = SqlConditions.joinUriRanges("hits_day", "bucket", plans,
+                BucketPlan::getCompactedRanges, parameters);
+        if (compactedRanges != null) {
+            parts.add("SELECT t.app_id, t.uri_id, t.hits FROM " + compactedRanges);
+        }
+        String rawRanges = SqlConditions.joinUriRanges("hits", "created_date", plans, BucketPlan::getRawRanges,
+                parameters);
+        if (rawRanges != null) {
+            parts.add("SELECT t.app_id, t.uri_id, SUM(t.hit_count) AS hits FROM " + rawRanges +
+                    " GROUP BY t.app_id, t.uri_id");
+        }
+        if (!parts.isEmpty()) {
+            sumParts(parts, parameters, consumer);
+        }
+    }
+
+    public void findSeries(TimeRange compactedRange, TimeRange range, TimeInterval interval, List<Integer> uriIds,
+                           BiConsumer<RollupKey, Long> consumer) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        String uriCondition = SqlConditions.uriIds(uriIds, parameters);
+        List<String> parts = new ArrayList<>();
+        if (!range.isEmpty()) {
+            TimeBucket bucket = interval == TimeInterval.MINUTE ? TimeBucket.MINUTE : TimeBucket.HOUR;
+            parts.add("SELECT app_id, uri_id, " + SqlConditions.truncate("bucket", interval) + " AS bucket, hits " +
+                    "FROM " + bucket.getTable() + " WHERE " +
+                    SqlConditions.timeRanges("bucket", List.of(range), parameters) + uriCondition);
+        }
+        if (compactedRange != null && !compactedRange.isEmpty()) {
+            parts.add("SELECT app_id, uri_id, bucket, hits FROM hits_day WHERE " +
+                    SqlConditions.timeRanges("bucket", List.of(compactedRange), parameters) + uriCondition);
+        }
+        if (parts.isEmpty()) {
+            return;
+        }
+        String sql = "SELECT app_id, uri_id, bucket, SUM(hits) AS hits FROM (" + String.join(" UNION ALL ", parts) +
+                ") AS t GROUP BY app_id, uri_id, bucket";
+        namedParameterJdbcTemplate.query(sql, parameters, rs -> {
+            consumer.accept(new RollupKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                    rs.getTimestamp("bucket").toLocalDateTime()), rs.getLong("hits"));
+        });
+    }
+
+    public List<HitCount> findTopTotals(int limit) {
+        return jdbcTemplate.query("WITH totals AS (SELECT app_id, uri_id, SUM(hits) AS hits FROM " +
+                        "(SELECT app_id, uri_id, hits FROM hits_hour UNION ALL " +
+                        "SELECT app_id, uri_id, hits FROM hits_day) AS t GROUP BY app_id, uri_id) " +
+                        "SELECT app_id, uri_id, hits FROM totals WHERE uri_id IN " +
+                        "(SELECT uri_id FROM totals GROUP BY uri_id ORDER BY SUM(hits) DESC LIMIT ?)",
+                (rs, rowNum) -> new HitCount(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits")), limit);
+    }
+
+    public List<HitCount> findTotals(Collection<Integer> uriIds) {
+        return namedParameterJdbcTemplate.query("SELECT app_id, uri_id, SUM(hits) AS hits FROM " +
+                        "(SELECT app_id, uri_id, hits FROM hits_hour WHERE uri_id IN (:uriIds) UNION ALL " +
+                        "SELECT app_id, uri_id, hits FROM hits_day WHERE uri_id IN (:uriIds)) AS t " +
+                        "GROUP BY app_id, uri_id", new MapSqlParameterSource("uriIds", uriIds),
+                (rs, rowNum) -> new HitCount(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits")));
+    }
+
+    public long countUris() {
+        Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " +
+                "(SELECT uri_id FROM hits_hour UNION SELECT uri_id FROM hits_day) AS t", Long.class);
+        return count == null ? 0 : count;
+    }
+
+    public TimeRange findBounds() {
+        return jdbcTemplate.queryForObject("SELECT " +
+                "LEAST((SELECT MIN(bucket) FROM hits_day), (SELECT MIN(bucket) FROM hits_minute)) AS min_bucket, " +
+                "GREATEST((SELECT MAX(bucket) FROM hits_day) + INTERVAL '1 day', " +
+                "(SELECT MAX(bucket) FROM hits_minute) + INTERVAL '1 minute') AS max_bucket",
+                (rs, rowNum) -> rs.getTimestamp("min_bucket") == null ? null :
+                        new TimeRange(rs.getTimestamp("min_bucket").toLocalDateTime(),
+                                rs.getTimestamp("max_bucket").toLocalDateTime()));
+    }
+
+    public void findAll(TimeBucket bucket, BiConsumer<RollupKey, Long> consumer) {
+        findAll(bucket.getTable(), consumer);
+    }
+
+    public void findAll(TimeBucket bucket, Collection<LocalDateTime> buckets, BiConsumer<RollupKey, Long> consumer) {
+        if (buckets.isEmpty()) {
+            return;
+        }
+        List<Timestamp> values = buckets.stream().map(Timestamp::valueOf).collect(Collectors.toList());
+        namedParameterJdbcTemplate.query("SELECT app_id, uri_id, bucket, hits FROM " + bucket.getTable() +
+                " WHERE bucket IN (:buckets)", new MapSqlParameterSource("buckets", values), rs -> {
+                    consumer.accept(new RollupKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                            rs.getTimestamp("bucket").toLocalDateTime()), rs.getLong("hits"));
+                });
+    }
+
+    public void findAllDays(BiConsumer<RollupKey, Long> consumer) {
+        findAll("hits_day", consumer);
+    }
+
+    private void findAll(String table, BiConsumer<RollupKey, Long> consumer) {
+        jdbcTemplate.query("SELECT app_id, uri_id, bucket, hits FROM " + table + " ORDER BY bucket", rs -> {
+            consumer.accept(new RollupKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                    rs.getTimestamp("bucket").toLocalDateTime()), rs.getLong("hits"));
+        });
+    }
+
+    private void sumParts(List<String> parts, MapSqlParameterSource parameters, Consumer<HitCount> consumer) {
+        String sql = "SELECT app_id, uri_id, SUM(hits) AS hits FROM (" + String.join(" UNION ALL ", parts) + ") AS t " +
+                "GROUP BY app_id, uri_id ORDER BY hits DESC";
+        namedParameterJdbcTemplate.query(sql, parameters, rs -> {
+            consumer.accept(new HitCount(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits")));
+        });
+    }
+}
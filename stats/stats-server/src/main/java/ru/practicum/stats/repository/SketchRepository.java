@@ -0,0 +1,137 @@
+package ru.practicum.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.stats.model.BucketPlan;
+import ru.practicum.stats.model.RollupKey;
+import ru.practicum.stats.model.TimeBucket;
+import ru.practicum.stats.model.TimeRange;
+import ru.practicum.stats.model.UriPlan;
+import ru.practicum.stats.sketch.HyperLogLog;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+@Repository
+@RequiredArgsConstructor
+public class SketchRepository {
+    private static final String UPSERT_SKETCH = "INSERT INTO hll_hour (app_id, uri_id, bucket, sketch) VALUES (?, ?, ?, ?) " +
+            "ON CONFLICT (bucket, app_id, uri_id) DO UPDATE SET sketch = EXCLUDED.sketch";
+    private static final int FETCH_SIZE = 1000;
+    private static final int KEYS_PER_QUERY = 1000;
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    public Map<RollupKey, HyperLogLog> findAllByKeys(List<RollupKey> keys) {
+        Map<RollupKey, HyperLogLog> sketches = new HashMap<>();
+        for (int from = 0; from < keys.size(); from += KEYS_PER_QUERY) {
+            List<Object[]> values = keys.subList(from, Math.min(keys.size(), from + KEYS_PER_QUERY)).stream()
+                    .map(key -> new Object[]{Timestamp.valueOf(key.getBucket()), key.getAppId(), key.getUriId()})
+                    .collect(Collectors.toList());
+            namedParameterJdbcTemplate.query("SELECT app_id, uri_id, bucket, sketch FROM hll_hour " +
+                            "WHERE (bucket, app_id, uri_id) IN (:keys)", new MapSqlParameterSource("keys", values),
+                    rs -> {
+                        sketches.put(new RollupKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                                        rs.getTimestamp("bucket").toLocalDateTime()),
+                                HyperLogLog.fromBytes(rs.getBytes("sketch")));
+                    });
+        }
+        return sketches;
+    }
+
+    public void findAll(List<TimeRange> ranges, List<Integer> uriIds, BiConsumer<RollupKey, HyperLogLog> consumer) {
+        if (ranges.isEmpty()) {
+            return;
+        }
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        String sql = "SELECT app_id, uri_id, bucket, sketch FROM hll_hour WHERE " +
+                SqlConditions.timeRanges("bucket", ranges, parameters) + SqlConditions.uriIds(uriIds, parameters);
+        namedParameterJdbcTemplate.query(sql, parameters, rs -> {
+            consumer.accept(new RollupKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                    rs.getTimestamp("bucket").toLocalDateTime()), HyperLogLog.fromBytes(rs.getBytes("sketch")));
+        });
+    }
+
+    public void findAll(List<UriPlan> plans, BiConsumer<RollupKey, HyperLogLog> consumer) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        String ranges = SqlConditions.joinUriRanges("hll_hour", "bucket", plans,
+                plan -> plan.getRanges(TimeBucket.HOUR), parameters);
+        if (ranges == null) {
+            return;
+        }
+        namedParameterJdbcTemplate.query("SELECT t.app_id, t.uri_id, t.bucket, t.sketch FROM " + ranges, parameters,
+                rs -> {
+                    consumer.accept(new RollupKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                                    rs.getTimestamp("bucket").toLocalDateTime()),
+                            HyperLogLog.fromBytes(rs.getBytes("sketch")));
+                });
+    }
+
+    public void findAllCompacted(List<TimeRange> ranges, List<Integer> uriIds,
+                                 BiConsumer<RollupKey, HyperLogLog> consumer) {
+        if (ranges.isEmpty()) {
+            return;
+        }
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        String sql = "SELECT app_id, uri_id, bucket, sketch FROM hits_day WHERE sketch IS NOT NULL AND " +
+                SqlConditions.timeRanges("bucket", ranges, parameters) + SqlConditions.uriIds(uriIds, parameters);
+        namedParameterJdbcTemplate.query(sql, parameters, rs -> {
+            consumer.accept(new RollupKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                    rs.getTimestamp("bucket").toLocalDateTime()), HyperLogLog.fromBytes(rs.getBytes("sketch")));
+        });
+    }
+
+    public void findAllCompacted(List<UriPlan> plans, BiConsumer<RollupKey, HyperLogLog> consumer) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        String ranges = SqlConditions.joinUriRanges("hits_day", "bucket", plans, BucketPlan::getCompactedRanges,
+                parameters);
+        if (ranges == null) {
+            return;
+        }
+        namedParameterJdbcTemplate.query("SELECT t.app_id, t.uri_id, t.bucket, t.sketch FROM " + ranges +
+                " WHERE t.sketch IS NOT NULL", parameters, rs -> {
+                    consumer.accept(new RollupKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                                    rs.getTimestamp("bucket").toLocalDateTime()),
+                            HyperLogLog.fromBytes(rs.getBytes("sketch")));
+                });
+    }
+
+    public void saveAll(Map<RollupKey, HyperLogLog> sketches) {
+        List<Map.Entry<RollupKey, HyperLogLog>> entries = new ArrayList<>(sketches.entrySet());
+        jdbcTemplate.batchUpdate(UPSERT_SKETCH, entries, entries.size(), (ps, entry) -> {
+            ps.setInt(1, entry.getKey().getAppId());
+            ps.setInt(2, entry.getKey().getUriId());
+            ps.setTimestamp(3, Timestamp.valueOf(entry.getKey().getBucket()));
+            ps.setBytes(4, entry.getValue().toBytes());
+        });
+    }
+
+    public void findAllByUriIds(Collection<Integer> uriIds, BiConsumer<RollupKey, HyperLogLog> consumer) {
+        if (uriIds.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    "SELECT app_id, uri_id, bucket, sketch FROM hll_hour WHERE uri_id = ANY (?) UNION ALL " +
+                            "SELECT app_id, uri_id, bucket, sketch FROM hits_day " +
+                            "WHERE uri_id = ANY (?) AND sketch IS NOT NULL");
+            statement.setArray(1, connection.createArrayOf("integer", uriIds.toArray()));
+            statement.setArray(2, connection.createArrayOf("integer", uriIds.toArray()));
+            statement.setFetchSize(FETCH_SIZE);
+            return statement;
+        }, rs -> {
+            consumer.accept(new RollupKey(rs.getInt("app_id"), rs.getInt("uri_id"),
+                    rs.getTimestamp("bucket").toLocalDateTime()), HyperLogLog.fromBytes(rs.getBytes("sketch")));
+        });
+    }
+}
@@ -0,0 +1,66 @@
+package ru.practicum.stats.repository;
+
+import lombok.experimental.UtilityClass;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import ru.practicum.dto.TimeInterval;
+import ru.practicum.stats.model.BucketPlan;
+import ru.practicum.stats.model.TimeRange;
+import ru.practicum.stats.model.UriPlan;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+@UtilityClass
+class SqlConditions {
+    String timeRanges(String column, List<TimeRange> ranges, MapSqlParameterSource parameters) {
+        List<String> conditions = new ArrayList<>(ranges.size());
+        for (TimeRange range : ranges) {
+            String from = "from" + parameters.getParameterNames().length;
+            parameters.addValue(from, Timestamp.valueOf(range.getFrom()));
+            String to = "to" + parameters.getParameterNames().length;
+            parameters.addValue(to, Timestamp.valueOf(range.getTo()));
+            conditions.add(column + " >= :" + from + " AND " + column + " < :" + to);
+        }
+        return "(" + String.join(" OR ", conditions) + ")";
+    }
+
+    String joinUriRanges(String table, String column, List<UriPlan> plans,
+                         Function<BucketPlan, List<TimeRange>> tier, MapSqlParameterSource parameters) {
+        List<Integer> uriIds = new ArrayList<>();
+        List<String> froms = new ArrayList<>();
+        List<String> tos = new ArrayList<>();
+        for (UriPlan plan : plans) {
+            for (TimeRange range : tier.apply(plan.getPlan())) {
+                uriIds.add(plan.getUriId());
+                froms.add(range.getFrom().toString());
+                tos.add(range.getTo().toString());
+            }
+        }
+        if (uriIds.isEmpty()) {
+            return null;
+        }
+        String suffix = String.valueOf(parameters.getParameterNames().length);
+        parameters.addValue("rangeUriIds" + suffix, uriIds.toArray(new Integer[0]));
+        parameters.addValue("rangeFroms" + suffix, froms.toArray(new String[0]));
+        parameters.addValue("rangeTos" + suffix, tos.toArray(new String[0]));
+        return "UNNEST(CAST(:rangeUriIds" + suffix + " AS INTEGER[]), CAST(:rangeFroms" + suffix +
+                " AS TIMESTAMP[]), CAST(:rangeTos" + suffix + " AS TIMESTAMP[])) AS r(uri_id, range_from, range_to) " +
+                "JOIN " + table + " t ON t.uri_id = r.uri_id AND t." + column + " >= r.range_from AND t." + column +
+                " < r.range_to";
+    }
+
+    String truncate(String column, TimeInterval interval) {
+        return "date_trunc('" + interval.name().toLowerCase(Locale.ROOT) + "', " + column + ")";
+    }
+
+    String uriIds(List<Integer> uriIds, MapSqlParameterSource parameters) {
+        if (uriIds == null) {
+            return "";
+        }
+        parameters.addValue("uriIds", uriIds);
+        return " AND uri_id IN (:uriIds)";
+    }
+}
@@ -1,39 +0,0 @@
-package ru.practicum.stats.repository;
-
-import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Query;
-import ru.practicum.dto.ViewStatsDto;
-import ru.practicum.stats.model.EndpointHit;
-
-import java.time.LocalDateTime;
-import java.util.List;
-
-public interface StatsRepository extends JpaRepository<EndpointHit, Long> {
-    @Query("SELECT new ru.practicum.dto.ViewStatsDto(eh.app, eh.uri, COUNT(eh.ip)) " +
-            "FROM EndpointHit as eh " +
-            "WHERE eh.timestamp BETWEEN :start AND :end " +
-            "GROUP BY eh.app, eh.uri " +
-            "ORDER BY COUNT(eh.ip) DESC")
-    List<ViewStatsDto> findStatsByDate(LocalDateTime start, LocalDateTime end);
-
-    @Query("SELECT new ru.practicum.dto.ViewStatsDto(eh.app, eh.uri, COUNT(DISTINCT eh.ip)) " +
-            "FROM EndpointHit as eh " +
-            "WHERE eh.timestamp BETWEEN :start AND :end " +
-            "GROUP BY eh.app, eh.uri " +
-            "ORDER BY COUNT(eh.ip) DESC")
-    List<ViewStatsDto> findUniqueIpStats(LocalDateTime start, LocalDateTime end);
-
-    @Query("SELECT new ru.practicum.dto.ViewStatsDto(eh.app, eh.uri, COUNT(eh.ip)) " +
-            "FROM EndpointHit as eh " +
-            "WHERE eh.timestamp BETWEEN :start AND :end AND eh.uri IN :uris " +
-            "GROUP BY eh.app, eh.uri " +
-            "ORDER BY COUNT(eh.ip) DESC")
-    List<ViewStatsDto> findStatsWithUris(LocalDateTime start, LocalDateTime end, List<String> uris);
-
-    @Query("SELECT new ru.practicum.dto.ViewStatsDto(eh.app, eh.uri, COUNT(DISTINCT eh.ip)) " +
-            "FROM EndpointHit as eh " +
-            "WHERE eh.timestamp BETWEEN :start AND :end AND eh.uri IN :uris " +
-            "GROUP BY eh.app, eh.uri " +
-            "ORDER BY COUNT(eh.ip) DESC")
-    List<ViewStatsDto> findUniqueIpStatsWithUris(LocalDateTime start, LocalDateTime end, List<String> uris);
-}
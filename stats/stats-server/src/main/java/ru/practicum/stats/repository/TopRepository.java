@@ -0,0 +1,100 @@
+package ru.practicum.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.stats.model.TimeRange;
+import ru.practicum.stats.sketch.SpaceSaving;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+@Repository
+@RequiredArgsConstructor
+public class TopRepository {
+    private static final String UPSERT_SUMMARY = "INSERT INTO %s (bucket, summary) VALUES (?, ?) " +
+            "ON CONFLICT (bucket) DO UPDATE SET summary = EXCLUDED.summary";
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    public boolean isEmpty() {
+        return !Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM top_hour) " +
+                "OR EXISTS (SELECT 1 FROM top_day)", Boolean.class));
+    }
+
+    public void findAll(List<TimeRange> hourRanges, List<TimeRange> dayRanges,
+                        BiConsumer<LocalDateTime, SpaceSaving> consumer) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        List<String> parts = new ArrayList<>();
+        if (!hourRanges.isEmpty()) {
+            parts.add("SELECT bucket, summary FROM top_hour WHERE " +
+                    SqlConditions.timeRanges("bucket", hourRanges, parameters));
+        }
+        if (!dayRanges.isEmpty()) {
+            parts.add("SELECT bucket, summary FROM top_day WHERE " +
+                    SqlConditions.timeRanges("bucket", dayRanges, parameters));
+        }
+        if (parts.isEmpty()) {
+            return;
+        }
+        namedParameterJdbcTemplate.query(String.join(" UNION ALL ", parts), parameters, rs -> {
+            consumer.accept(rs.getTimestamp("bucket").toLocalDateTime(),
+                    SpaceSaving.fromBytes(rs.getBytes("summary")));
+        });
+    }
+
+    public Map<LocalDateTime, SpaceSaving> findHours(Collection<LocalDateTime> buckets) {
+        return findAllByBuckets("top_hour", buckets, "");
+    }
+
+    public Map<LocalDateTime, SpaceSaving> findDaysForUpdate(Collection<LocalDateTime> buckets) {
+        return findAllByBuckets("top_day", buckets, " FOR UPDATE");
+    }
+
+    public void saveHours(Map<LocalDateTime, SpaceSaving> summaries) {
+        saveAll("top_hour", summaries);
+    }
+
+    public void saveDays(Map<LocalDateTime, SpaceSaving> summaries) {
+        saveAll("top_day", summaries);
+    }
+
+    public void takeHours(LocalDateTime before, BiConsumer<LocalDateTime, SpaceSaving> consumer) {
+        jdbcTemplate.query("DELETE FROM top_hour WHERE bucket < ? RETURNING bucket, summary", rs -> {
+            consumer.accept(rs.getTimestamp("bucket").toLocalDateTime(),
+                    SpaceSaving.fromBytes(rs.getBytes("summary")));
+        }, Timestamp.valueOf(before));
+    }
+
+    private Map<LocalDateTime, SpaceSaving> findAllByBuckets(String table, Collection<LocalDateTime> buckets,
+                                                            String lock) {
+        Map<LocalDateTime, SpaceSaving> summaries = new HashMap<>();
+        if (buckets.isEmpty()) {
+            return summaries;
+        }
+        List<Timestamp> values = buckets.stream().map(Timestamp::valueOf).collect(Collectors.toList());
+        namedParameterJdbcTemplate.query("SELECT bucket, summary FROM " + table + " WHERE bucket IN (:buckets)" +
+                lock, new MapSqlParameterSource("buckets", values), rs -> {
+                    summaries.put(rs.getTimestamp("bucket").toLocalDateTime(),
+                            SpaceSaving.fromBytes(rs.getBytes("summary")));
+                });
+        return summaries;
+    }
+
+    private void saveAll(String table, Map<LocalDateTime, SpaceSaving> summaries) {
+        List<Map.Entry<LocalDateTime, SpaceSaving>> entries = new ArrayList<>(summaries.entrySet());
+        jdbcTemplate.batchUpdate(String.format(UPSERT_SUMMARY, table), entries, entries.size(), (ps, entry) -> {
+            ps.setTimestamp(1, Timestamp.valueOf(entry.getKey()));
+            ps.setBytes(2, entry.getValue().toBytes());
+        });
+    }
+}
@@ -0,0 +1,301 @@
+package ru.practicum.stats.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.dto.LongLongMap;
+import ru.practicum.stats.config.StatsServerProperties;
+import ru.practicum.stats.model.BucketPlan;
+import ru.practicum.stats.model.EndpointHit;
+import ru.practicum.stats.model.HitCount;
+import ru.practicum.stats.model.HitSegment;
+import ru.practicum.stats.model.StatsKey;
+import ru.practicum.stats.model.TimeRange;
+import ru.practicum.stats.model.UriPlan;
+import ru.practicum.stats.repository.CompactionRepository;
+import ru.practicum.stats.repository.HitJdbcRepository;
+import ru.practicum.stats.repository.PartitionRepository;
+import ru.practicum.stats.repository.RollupRepository;
+import ru.practicum.stats.sketch.Hashing;
+import ru.practicum.stats.utils.IpAddresses;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Архив посещений старше горизонта сжатия в виде неизменяемых сегментов {@link HitSegment} на диске.
+ * Сутки выгружаются в сегмент и удаляются из hits в одной транзакции со сдвигом горизонта, поэтому
+ * интервал [archived_from, horizon) всегда целиком лежит в архиве. Сегмент хранит номер выгрузившей его
+ * транзакции: при старте сегменты откаченных транзакций удаляются.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ArchiveService {
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private final CompactionRepository compactionRepository;
+    private final PartitionRepository partitionRepository;
+    private final HitJdbcRepository hitJdbcRepository;
+    private final RollupRepository rollupRepository;
+    private final StatsServerProperties properties;
+    private final ConcurrentSkipListMap<LocalDate, List<HitSegment>> segments = new ConcurrentSkipListMap<>();
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!properties.getArchive().isEnabled()) {
+            return;
+        }
+        Path directory = properties.getArchive().getDirectory();
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(".tmp")) {
+                Files.deleteIfExists(file);
+            } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                HitSegment segment;
+                try {
+                    segment = HitSegment.open(file);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Не удалось открыть сегмент архива {}: {}", file, e.getMessage());
+                    continue;
+                }
+                if ("aborted".equals(compactionRepository.findTransactionStatus(segment.getTransactionId()))) {
+                    Files.deleteIfExists(file);
+                    log.info("Удален сегмент архива {} откаченной транзакции", file);
+                } else {
+                    register(segment);
+                }
+            }
+        }
+        log.info("Загружено {} сегментов архива из {}", segments.values().stream().mapToInt(List::size).sum(),
+                directory);
+    }
+
+    public boolean isEnabled() {
+        return properties.getArchive().isEnabled();
+    }
+
+    public LocalDateTime findArchivedFrom() {
+        return isEnabled() ? compactionRepository.findArchivedFrom() : null;
+    }
+
+    public void archive(LocalDateTime archivedFrom, LocalDateTime before) {
+        long transactionId = 0;
+        for (LocalDate day : compactionRepository.findHitDays(before)) {
+            if (day.atStartOfDay().isBefore(archivedFrom)) {
+                continue;
+            }
+            if (transactionId == 0) {
+                transactionId = compactionRepository.findTransactionId();
+            }
+            archiveDay(day, transactionId);
+        }
+    }
+
+    public void deleteBefore(LocalDate day) {
+        for (List<HitSegment> daySegments : segments.headMap(day).values()) {
+            for (HitSegment segment : daySegments) {
+                unregister(segment);
+                try {
+                    Files.deleteIfExists(segment.getPath());
+                    log.info("Удален устаревший сегмент архива {}", segment.getPath());
+                } catch (IOException e) {
+                    log.warn("Не удалось удалить сегмент архива {}: {}", segment.getPath(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    public List<HitCount> findStats(BucketPlan plan, List<Integer> uriIds, boolean unique) {
+        if (unique) {
+            Map<StatsKey, LongLongMap> ips = new HashMap<>();
+            findIpHashes(plan.getArchivedRange(), uriIds, (key, ipHash) -> addIpHash(ips, key, ipHash));
+            hitJdbcRepository.findDistinctIps(plan.getRawRanges(), uriIds, (key, ip) -> addIp(ips, key, ip));
+            return countUnique(ips);
+        }
+        Map<StatsKey, Long> hits = new HashMap<>();
+        countHits(plan.getArchivedRange(), uriIds, hitCount -> addHits(hits, hitCount));
+        rollupRepository.findStats(plan, uriIds, hitCount -> addHits(hits, hitCount));
+        return toStats(hits);
+    }
+
+    public List<HitCount> findStats(List<UriPlan> plans, boolean unique) {
+        if (unique) {
+            Map<StatsKey, LongLongMap> ips = new HashMap<>();
+            for (UriPlan plan : plans) {
+                findIpHashes(plan.getPlan().getArchivedRange(), List.of(plan.getUriId()),
+                        (key, ipHash) -> addIpHash(ips, key, ipHash));
+            }
+            hitJdbcRepository.findDistinctIps(plans, (key, ip) -> addIp(ips, key, ip));
+            return countUnique(ips);
+        }
+        Map<StatsKey, Long> hits = new HashMap<>();
+        for (UriPlan plan : plans) {
+            countHits(plan.getPlan().getArchivedRange(), List.of(plan.getUriId()),
+                    hitCount -> addHits(hits, hitCount));
+        }
+        rollupRepository.findStats(plans, hitCount -> addHits(hits, hitCount));
+        return toStats(hits);
+    }
+
+    private void archiveDay(LocalDate day, long transactionId) {
+        partitionRepository.lockDay(day);
+        LocalDateTime from = day.atStartOfDay();
+        LocalDateTime to = from.plusDays(1);
+        DayHits hits = new DayHits(from);
+        hitJdbcRepository.findAllBetween(from, to, hits::add);
+        Path path = properties.getArchive().getDirectory().resolve("hits-" + day + "-" + transactionId
+                + SEGMENT_SUFFIX);
+        HitSegment[] segment = new HitSegment[1];
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    return;
+                }
+                if (segment[0] != null) {
+                    unregister(segment[0]);
+                }
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    log.warn("Не удалось удалить сегмент архива {}: {}", path, e.getMessage());
+                }
+            }
+        });
+        try {
+            HitSegment.write(path, day, transactionId, hits.size, hits.uriIds, hits.appIds, hits.times,
+                    hits.ipHashes, hits.counts);
+            segment[0] = HitSegment.open(path);
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось записать сегмент архива " + path, e);
+        }
+        register(segment[0]);
+        int deleted = compactionRepository.deleteHits(from, to);
+        log.info("В архив {} выгружено {} EndpointHit за {}", path, deleted, day);
+    }
+
+    private void register(HitSegment segment) {
+        segments.computeIfAbsent(segment.getDay(), day -> new CopyOnWriteArrayList<>()).add(segment);
+    }
+
+    private void unregister(HitSegment segment) {
+        segments.computeIfPresent(segment.getDay(), (day, daySegments) -> {
+            daySegments.remove(segment);
+            return daySegments.isEmpty() ? null : daySegments;
+        });
+    }
+
+    private void countHits(TimeRange range, List<Integer> uriIds, Consumer<HitCount> consumer) {
+        forEachSegment(range, uriIds, (segment, uriId) -> segment.countHits(uriId, toSeconds(range.getFrom()),
+                toSeconds(range.getTo()), consumer));
+    }
+
+    private void findIpHashes(TimeRange range, List<Integer> uriIds, BiConsumer<StatsKey, Long> consumer) {
+        forEachSegment(range, uriIds, (segment, uriId) -> segment.findIpHashes(uriId, toSeconds(range.getFrom()),
+                toSeconds(range.getTo()), consumer));
+    }
+
+    private void forEachSegment(TimeRange range, List<Integer> uriIds, BiConsumer<HitSegment, Integer> consumer) {
+        if (range == null || range.isEmpty()) {
+            return;
+        }
+        long from = toSeconds(range.getFrom());
+        long to = toSeconds(range.getTo());
+        segments.subMap(range.getFrom().toLocalDate(), true, range.getTo().toLocalDate(), true).values().stream()
+                .flatMap(List::stream)
+                .filter(segment -> segment.overlaps(from, to))
+                .forEach(segment -> {
+                    if (uriIds == null) {
+                        consumer.accept(segment, null);
+                    } else {
+                        uriIds.forEach(uriId -> consumer.accept(segment, uriId));
+                    }
+                });
+    }
+
+    private static void addHits(Map<StatsKey, Long> hits, HitCount hitCount) {
+        hits.merge(new StatsKey(hitCount.getAppId(), hitCount.getUriId()), hitCount.getHits(), Long::sum);
+    }
+
+    private static void addIpHash(Map<StatsKey, LongLongMap> ips, StatsKey key, long ipHash) {
+        ips.computeIfAbsent(key, k -> new LongLongMap(16)).put(ipHash, 0);
+    }
+
+    private static void addIp(Map<StatsKey, LongLongMap> ips, StatsKey key, String ip) {
+        addIpHash(ips, key, Hashing.hash64(IpAddresses.toBytes(ip)));
+    }
+
+    private static List<HitCount> countUnique(Map<StatsKey, LongLongMap> ips) {
+        Map<StatsKey, Long> hits = new HashMap<>();
+        ips.forEach((key, keyIps) -> hits.put(key, (long) keyIps.size()));
+        return toStats(hits);
+    }
+
+    private static List<HitCount> toStats(Map<StatsKey, Long> hits) {
+        List<HitCount> stats = new ArrayList<>(hits.size());
+        hits.forEach((key, count) -> {
+            if (count > 0) {
+                stats.add(new HitCount(key.getAppId(), key.getUriId(), count));
+            }
+        });
+        stats.sort(Comparator.comparingLong(HitCount::getHits).reversed());
+        return stats;
+    }
+
+    private static long toSeconds(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static final class DayHits {
+        private final long dayStart;
+        private int size;
+        private int[] uriIds = new int[1024];
+        private int[] appIds = new int[1024];
+        private int[] times = new int[1024];
+        private long[] ipHashes = new long[1024];
+        private int[] counts = new int[1024];
+
+        private DayHits(LocalDateTime dayStart) {
+            this.dayStart = toSeconds(dayStart);
+        }
+
+        private void add(EndpointHit hit) {
+            if (size == times.length) {
+                uriIds = Arrays.copyOf(uriIds, size * 2);
+                appIds = Arrays.copyOf(appIds, size * 2);
+                times = Arrays.copyOf(times, size * 2);
+                ipHashes = Arrays.copyOf(ipHashes, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            uriIds[size] = hit.getUriId();
+            appIds[size] = hit.getAppId();
+            times[size] = (int) (toSeconds(hit.getTimestamp()) - dayStart);
+            ipHashes[size] = Hashing.hash64(IpAddresses.toBytes(hit.getIp()));
+            counts[size++] = hit.getCount();
+        }
+    }
+}
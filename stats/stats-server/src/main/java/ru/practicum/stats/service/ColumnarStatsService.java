@@ -0,0 +1,261 @@
+package ru.practicum.stats.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.stats.config.StatsServerProperties;
+import ru.practicum.stats.model.EndpointHit;
+import ru.practicum.stats.model.HitColumn;
+import ru.practicum.stats.model.HitCount;
+import ru.practicum.stats.repository.HitJdbcRepository;
+import ru.practicum.stats.sketch.Hashing;
+import ru.practicum.stats.utils.IpAddresses;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Колоночное хранилище посещений за последние stats.columnar.window в памяти процесса.
+ * Посещения применяются строго по возрастанию id до границы {@link HitWatermark}, поэтому снимок на диске
+ * вместе с сохраненной позицией однозначно определяет, какие посещения нужно дочитать из базы при старте.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ColumnarStatsService implements HitListener {
+    private static final int SNAPSHOT_VERSION = 2;
+    private final HitJdbcRepository hitJdbcRepository;
+    private final HitWatermark hitWatermark;
+    private final TransactionTemplate transactionTemplate;
+    private final StatsServerProperties properties;
+    private final Map<Integer, Map<Integer, HitColumn>> uris = new ConcurrentHashMap<>();
+    private final PriorityQueue<EndpointHit> pending = new PriorityQueue<>(Comparator.comparing(EndpointHit::getId));
+    private final ReentrantLock applyLock = new ReentrantLock();
+    private volatile long cursor;
+    private volatile long coveredFrom;
+    private volatile boolean ready;
+
+    @PostConstruct
+    public void init() {
+        if (!properties.getColumnar().isEnabled()) {
+            return;
+        }
+        long upTo = hitWatermark.get();
+        if (!loadSnapshot(upTo)) {
+            coveredFrom = toSeconds(LocalDateTime.now().minus(properties.getColumnar().getWindow()));
+            transactionTemplate.executeWithoutResult(status -> hitJdbcRepository.findAllSince(
+                    LocalDateTime.ofEpochSecond(coveredFrom, 0, ZoneOffset.UTC), upTo, this::apply));
+            log.info("Колоночное хранилище построено по EndpointHit до id {}", upTo);
+        }
+        cursor = upTo;
+        ready = true;
+    }
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        if (!properties.getColumnar().isEnabled()) {
+            return;
+        }
+        synchronized (pending) {
+            pending.addAll(hits);
+        }
+        catchUp();
+    }
+
+    public Optional<List<HitCount>> findStats(LocalDateTime start, LocalDateTime end, List<Integer> uriIds,
+                                              boolean unique) {
+        long from = toSeconds(start);
+        if (!ready || from < coveredFrom || !catchUp()) {
+            return Optional.empty();
+        }
+        long to = toSeconds(end) + 1;
+        List<HitCount> stats = new ArrayList<>();
+        if (uriIds == null) {
+            uris.forEach((uriId, columns) -> addStats(stats, uriId, columns, from, to, unique));
+        } else {
+            for (Integer uriId : uriIds) {
+                addStats(stats, uriId, uris.get(uriId), from, to, unique);
+            }
+        }
+        stats.sort(Comparator.comparingLong(HitCount::getHits).reversed());
+        return Optional.of(stats);
+    }
+
+    public Optional<List<HitCount>> findStats(Map<Integer, LocalDateTime> uriStarts, LocalDateTime end,
+                                              boolean unique) {
+        if (!ready || uriStarts.values().stream().anyMatch(start -> toSeconds(start) < coveredFrom) || !catchUp()) {
+            return Optional.empty();
+        }
+        long to = toSeconds(end) + 1;
+        List<HitCount> stats = new ArrayList<>();
+        uriStarts.forEach((uriId, start) -> addStats(stats, uriId, uris.get(uriId), toSeconds(start), to, unique));
+        stats.sort(Comparator.comparingLong(HitCount::getHits).reversed());
+        return Optional.of(stats);
+    }
+
+    @Scheduled(fixedDelayString = "#{@statsServerProperties.columnar.snapshotInterval.toMillis()}")
+    public void maintain() {
+        if (!ready) {
+            return;
+        }
+        applyLock.lock();
+        try {
+            trim();
+            saveSnapshot();
+        } finally {
+            applyLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        maintain();
+    }
+
+    private boolean catchUp() {
+        if (!applyLock.tryLock()) {
+            return false;
+        }
+        try {
+            long upTo = hitWatermark.get();
+            List<EndpointHit> batch = new ArrayList<>();
+            synchronized (pending) {
+                while (!pending.isEmpty() && pending.peek().getId() <= upTo) {
+                    batch.add(pending.poll());
+                }
+            }
+            for (EndpointHit hit : batch) {
+                if (hit.getId() > cursor) {
+                    apply(hit);
+                }
+            }
+            cursor = Math.max(cursor, upTo);
+            return true;
+        } finally {
+            applyLock.unlock();
+        }
+    }
+
+    private void apply(EndpointHit hit) {
+        if (hit.getIpHash() == 0) {
+            hit.setIpHash(Hashing.hash64(IpAddresses.toBytes(hit.getIp())));
+        }
+        column(hit.getAppId(), hit.getUriId()).add(toSeconds(hit.getTimestamp()), hit.getIpHash(), hit.getCount());
+    }
+
+    private HitColumn column(int appId, int uriId) {
+        return uris.computeIfAbsent(uriId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(appId, id -> new HitColumn(properties.getColumnar().getChunkSize()));
+    }
+
+    private void trim() {
+        coveredFrom = Math.max(coveredFrom, toSeconds(LocalDateTime.now().minus(properties.getColumnar().getWindow())));
+        long removed = 0;
+        for (Map<Integer, HitColumn> columns : uris.values()) {
+            for (HitColumn column : columns.values()) {
+                removed += column.trim(coveredFrom);
+            }
+            columns.values().removeIf(column -> column.size() == 0);
+        }
+        uris.values().removeIf(Map::isEmpty);
+        log.debug("Из колоночного хранилища удалено {} посещений", removed);
+    }
+
+    private void saveSnapshot() {
+        Path path = properties.getColumnar().getSnapshotPath();
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        List<Map.Entry<Integer, Map<Integer, HitColumn>>> entries = new ArrayList<>(uris.entrySet());
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary)))) {
+            output.writeInt(SNAPSHOT_VERSION);
+            output.writeLong(cursor);
+            output.writeLong(coveredFrom);
+            output.writeInt(entries.stream().mapToInt(entry -> entry.getValue().size()).sum());
+            for (Map.Entry<Integer, Map<Integer, HitColumn>> entry : entries) {
+                for (Map.Entry<Integer, HitColumn> column : entry.getValue().entrySet()) {
+                    output.writeInt(column.getKey());
+                    output.writeInt(entry.getKey());
+                    column.getValue().writeTo(output);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Не удалось сохранить снимок колоночного хранилища {}: {}", path, e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Не удалось сохранить снимок колоночного хранилища {}: {}", path, e.getMessage());
+        }
+    }
+
+    private boolean loadSnapshot(long upTo) {
+        Path path = properties.getColumnar().getSnapshotPath();
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            long snapshotCursor;
+            if (input.readInt() != SNAPSHOT_VERSION || (snapshotCursor = input.readLong()) > upTo) {
+                log.info("Снимок колоночного хранилища {} не подходит и будет пропущен", path);
+                return false;
+            }
+            coveredFrom = input.readLong();
+            if (coveredFrom < toSeconds(LocalDateTime.now().minus(properties.getColumnar().getWindow().multipliedBy(2)))) {
+                log.info("Снимок колоночного хранилища {} устарел и будет пропущен", path);
+                return false;
+            }
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                int appId = input.readInt();
+                column(appId, input.readInt()).readFrom(input);
+            }
+            transactionTemplate.executeWithoutResult(status ->
+                    hitJdbcRepository.findAllAfter(snapshotCursor, upTo, this::apply));
+            log.info("Колоночное хранилище загружено из снимка {} и дочитано с id {} до {}", path, snapshotCursor,
+                    upTo);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Не удалось загрузить снимок колоночного хранилища {}: {}", path, e.getMessage());
+            uris.clear();
+            return false;
+        }
+    }
+
+    private static void addStats(List<HitCount> stats, int uriId, Map<Integer, HitColumn> columns, long from, long to,
+                                 boolean unique) {
+        if (columns == null) {
+            return;
+        }
+        columns.forEach((appId, column) -> {
+            long hits = unique ? column.countUnique(from, to) : column.count(from, to);
+            if (hits > 0) {
+                stats.add(new HitCount(appId, uriId, hits));
+            }
+        });
+    }
+
+    private static long toSeconds(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+}
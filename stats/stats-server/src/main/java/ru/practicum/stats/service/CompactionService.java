@@ -0,0 +1,114 @@
+package ru.practicum.stats.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.stats.config.StatsServerProperties;
+import ru.practicum.stats.model.RollupKey;
+import ru.practicum.stats.repository.CompactionRepository;
+import ru.practicum.stats.repository.PartitionRepository;
+import ru.practicum.stats.repository.TopRepository;
+import ru.practicum.stats.sketch.HyperLogLog;
+import ru.practicum.stats.sketch.SpaceSaving;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CompactionService {
+    private final CompactionRepository compactionRepository;
+    private final PartitionRepository partitionRepository;
+    private final TopRepository topRepository;
+    private final ArchiveService archiveService;
+    private final TransactionTemplate transactionTemplate;
+    private final StatsServerProperties properties;
+
+    @Scheduled(cron = "${stats.compaction.cron:0 30 * * * *}")
+    public synchronized void compact() {
+        if (!properties.getCompaction().isEnabled()) {
+            return;
+        }
+        LocalDateTime target = LocalDateTime.now().minus(properties.getCompaction().getAfter())
+                .truncatedTo(ChronoUnit.DAYS);
+        LocalDateTime horizon = compactionRepository.findHorizon();
+        if (horizon == null) {
+            LocalDateTime firstHour = compactionRepository.findFirstHour();
+            horizon = firstHour == null || firstHour.isAfter(target) ? target : firstHour.truncatedTo(ChronoUnit.DAYS);
+        }
+        LocalDateTime archivedFrom = null;
+        if (archiveService.isEnabled()) {
+            archivedFrom = Optional.ofNullable(compactionRepository.findArchivedFrom()).orElse(horizon);
+        }
+        do {
+            LocalDateTime next = horizon.isBefore(target) ? horizon.plusDays(1) : horizon;
+            LocalDateTime from = archivedFrom;
+            transactionTemplate.executeWithoutResult(status -> fold(next, from));
+            horizon = next;
+        } while (horizon.isBefore(target));
+        deleteHits(horizon, archivedFrom);
+    }
+
+    private void fold(LocalDateTime horizon, LocalDateTime archivedFrom) {
+        int days = compactionRepository.foldHours(horizon);
+        compactionRepository.deleteMinutes(horizon);
+        Map<RollupKey, HyperLogLog> sketches = new HashMap<>();
+        compactionRepository.takeHourSketches(horizon, (key, sketch) -> sketches.computeIfAbsent(
+                new RollupKey(key.getAppId(), key.getUriId(), key.getBucket().truncatedTo(ChronoUnit.DAYS)),
+                k -> new HyperLogLog()).merge(sketch));
+        if (!sketches.isEmpty()) {
+            compactionRepository.findDaySketchesForUpdate(new ArrayList<>(sketches.keySet()))
+                    .forEach((key, sketch) -> sketches.get(key).merge(sketch));
+            compactionRepository.saveDaySketches(sketches);
+        }
+        Map<LocalDateTime, SpaceSaving> summaries = new HashMap<>();
+        topRepository.takeHours(horizon, (bucket, summary) -> summaries.merge(bucket.truncatedTo(ChronoUnit.DAYS),
+                summary, (current, other) -> {
+                    current.merge(other);
+                    return current;
+                }));
+        if (!summaries.isEmpty()) {
+            topRepository.findDaysForUpdate(summaries.keySet()).forEach((day, summary) -> summaries.get(day)
+                    .merge(summary));
+            topRepository.saveDays(summaries);
+        }
+        if (archivedFrom != null) {
+            archiveService.archive(archivedFrom, horizon);
+        }
+        compactionRepository.saveHorizon(horizon, archivedFrom);
+        if (days > 0) {
+            log.info("Статистика до {} свернута в {} дневных агрегатов", horizon, days);
+        }
+    }
+
+    private void deleteHits(LocalDateTime horizon, LocalDateTime archivedFrom) {
+        LocalDate horizonDay = horizon.toLocalDate();
+        LocalDateTime before = archivedFrom == null ? horizon : archivedFrom;
+        for (LocalDate day : partitionRepository.findPartitionDays()) {
+            if (day.isBefore(before.toLocalDate())) {
+                partitionRepository.dropPartition(day);
+                log.info("Удалена свернутая партиция hits за {}", day);
+            } else if (day.isBefore(horizonDay) && partitionRepository.dropPartitionIfEmpty(day)) {
+                log.info("Удалена выгруженная в архив партиция hits за {}", day);
+            }
+        }
+        int chunkSize = properties.getCompaction().getChunkSize();
+        long total = 0;
+        int deleted;
+        do {
+            deleted = compactionRepository.deleteHits(before, chunkSize);
+            total += deleted;
+        } while (deleted == chunkSize);
+        if (total > 0) {
+            log.info("Удалено {} свернутых EndpointHit до {}", total, before);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package ru.practicum.stats.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.stats.model.Dictionary;
+import ru.practicum.stats.model.EndpointHit;
+import ru.practicum.stats.model.HitCount;
+import ru.practicum.stats.repository.DictionaryRepository;
+import ru.practicum.stats.sketch.Hashing;
+import ru.practicum.stats.utils.IpAddresses;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DictionaryService {
+    private final DictionaryRepository dictionaryRepository;
+    private final Map<Dictionary, Map<String, Integer>> ids = new EnumMap<>(Dictionary.class);
+    private final Map<Dictionary, Map<Integer, String>> values = new EnumMap<>(Dictionary.class);
+
+    @PostConstruct
+    public void init() {
+        for (Dictionary dictionary : Dictionary.values()) {
+            ids.put(dictionary, new ConcurrentHashMap<>());
+            values.put(dictionary, new ConcurrentHashMap<>());
+            dictionaryRepository.findAll(dictionary, (id, value) -> put(dictionary, value, id));
+            log.info("Загружен словарь {}: {} значений", dictionary.getTable(), ids.get(dictionary).size());
+        }
+    }
+
+    public void resolve(List<EndpointHit> hits) {
+        Set<String> missingApps = new TreeSet<>();
+        Set<String> missingUris = new TreeSet<>();
+        for (EndpointHit hit : hits) {
+            hit.setIpHash(Hashing.hash64(IpAddresses.toBytes(hit.getIp())));
+            if (!ids.get(Dictionary.APP).containsKey(hit.getApp())) {
+                missingApps.add(hit.getApp());
+            }
+            if (!ids.get(Dictionary.URI).containsKey(hit.getUri())) {
+                missingUris.add(hit.getUri());
+            }
+        }
+        Map<String, Integer> savedApps = save(Dictionary.APP, missingApps);
+        Map<String, Integer> savedUris = save(Dictionary.URI, missingUris);
+        for (EndpointHit hit : hits) {
+            hit.setAppId(getId(Dictionary.APP, savedApps, hit.getApp()));
+            hit.setUriId(getId(Dictionary.URI, savedUris, hit.getUri()));
+        }
+    }
+
+    public List<Integer> findUriIds(List<String> uris) {
+        return new ArrayList<>(findUriIdMap(uris).values());
+    }
+
+    public Map<String, Integer> findUriIdMap(Collection<String> uris) {
+        Map<String, Integer> uriIds = ids.get(Dictionary.URI);
+        Map<String, Integer> result = new HashMap<>();
+        Set<String> missing = new HashSet<>();
+        for (String uri : uris) {
+            Integer id = uriIds.get(uri);
+            if (id != null) {
+                result.put(uri, id);
+            } else {
+                missing.add(uri);
+            }
+        }
+        if (!missing.isEmpty()) {
+            dictionaryRepository.findAllByValues(Dictionary.URI, missing).forEach((uri, id) -> {
+                put(Dictionary.URI, uri, id);
+                result.put(uri, id);
+            });
+        }
+        return result;
+    }
+
+    public String getUri(int uriId) {
+        return getValue(Dictionary.URI, uriId);
+    }
+
+    public List<ViewStatsDto> toViewStats(List<HitCount> hitCounts) {
+        List<ViewStatsDto> stats = new ArrayList<>(hitCounts.size());
+        for (HitCount hitCount : hitCounts) {
+            stats.add(toViewStats(hitCount));
+        }
+        return stats;
+    }
+
+    public ViewStatsDto toViewStats(HitCount hitCount) {
+        return toViewStats(hitCount, false);
+    }
+
+    public ViewStatsDto toViewStats(HitCount hitCount, boolean approximate) {
+        return new ViewStatsDto(getValue(Dictionary.APP, hitCount.getAppId()),
+                getValue(Dictionary.URI, hitCount.getUriId()), hitCount.getHits(), approximate ? Boolean.TRUE : null);
+    }
+
+    private String getValue(Dictionary dictionary, int id) {
+        String value = values.get(dictionary).get(id);
+        if (value == null) {
+            dictionaryRepository.findAllByIds(dictionary, List.of(id)).forEach((key, found) ->
+                    put(dictionary, found, key));
+            value = values.get(dictionary).get(id);
+        }
+        return value;
+    }
+
+    private Map<String, Integer> save(Dictionary dictionary, Set<String> missing) {
+        if (missing.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, Integer> saved = dictionaryRepository.saveAll(dictionary, missing);
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            saved.forEach((value, id) -> put(dictionary, value, id));
+            return saved;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                saved.forEach((value, id) -> put(dictionary, value, id));
+            }
+        });
+        return saved;
+    }
+
+    private Integer getId(Dictionary dictionary, Map<String, Integer> saved, String value) {
+        Integer id = saved.get(value);
+        return id == null ? ids.get(dictionary).get(value) : id;
+    }
+
+    private void put(Dictionary dictionary, String value, int id) {
+        values.get(dictionary).put(id, value);
+        ids.get(dictionary).put(value, id);
+    }
+}
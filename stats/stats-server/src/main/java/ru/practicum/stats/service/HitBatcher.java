@@ -0,0 +1,168 @@
+package ru.practicum.stats.service;
+
+import lombok.AllArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.stats.config.StatsServerProperties;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Групповая фиксация одиночных посещений: запросы копятся в ограниченной очереди, отдельный поток
+ * сохраняет их одной транзакцией раз в max-delay или по достижении max-batch. Если очередь заполнена
+ * или уже закрыта остановкой, посещение сохраняется сразу в потоке запроса. При остановке очередь
+ * закрывается, и все принятые в нее посещения сохраняются до завершения.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class HitBatcher {
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+    private final StatsService statsService;
+    private final StatsServerProperties properties;
+    private final Object lock = new Object();
+    private BlockingQueue<PendingHit> queue;
+    private Thread writer;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void init() {
+        if (!isEnabled()) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(properties.getGroupCommit().getCapacity());
+        running = true;
+        writer = new Thread(this::run, "hit-batcher");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public boolean isEnabled() {
+        return properties.getGroupCommit().isEnabled();
+    }
+
+    public CompletableFuture<EndpointHitDto> submit(EndpointHitDto endpointHitDto) {
+        PendingHit pending = new PendingHit(endpointHitDto, new CompletableFuture<>());
+        boolean queued;
+        synchronized (lock) {
+            queued = running && queue.offer(pending);
+        }
+        if (!queued) {
+            log.debug("Очередь групповой фиксации заполнена или закрыта, EndpointHit сохраняется сразу");
+            return CompletableFuture.completedFuture(statsService.createHit(endpointHitDto));
+        }
+        return pending.result;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        close();
+        writer.join(properties.getGroupCommit().getMaxDelay().toMillis() + POLL_TIMEOUT_MILLIS * 10);
+        List<PendingHit> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            log.warn("Поток групповой фиксации не успел сохранить {} EndpointHit, сохранение при остановке",
+                    rest.size());
+            int maxBatch = properties.getGroupCommit().getMaxBatch();
+            for (int from = 0; from < rest.size(); from += maxBatch) {
+                flush(rest.subList(from, Math.min(rest.size(), from + maxBatch)));
+            }
+        }
+        writer.join();
+    }
+
+    private void close() {
+        synchronized (lock) {
+            running = false;
+        }
+    }
+
+    private void run() {
+        int maxBatch = properties.getGroupCommit().getMaxBatch();
+        long maxDelay = properties.getGroupCommit().getMaxDelay().toNanos();
+        List<PendingHit> batch = new ArrayList<>(maxBatch);
+        boolean interrupted = false;
+        while (running || !queue.isEmpty()) {
+            if (interrupted) {
+                queue.drainTo(batch, maxBatch);
+                flush(batch);
+                batch.clear();
+                continue;
+            }
+            try {
+                PendingHit first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelay;
+                while (batch.size() < maxBatch) {
+                    queue.drainTo(batch, maxBatch - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatch || remaining <= 0) {
+                        break;
+                    }
+                    PendingHit next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                log.warn("Поток групповой фиксации прерван, сохранение оставшихся EndpointHit");
+                interrupted = true;
+                close();
+            }
+            flush(batch);
+            batch.clear();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush(List<PendingHit> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            List<EndpointHitDto> saved = statsService.createHitBatch(batch.stream()
+                    .map(pending -> pending.endpointHitDto)
+                    .collect(Collectors.toList()));
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(saved.get(i));
+            }
+            return;
+        } catch (RuntimeException e) {
+            log.warn("Не удалось сохранить пачку из {} EndpointHit, сохранение по одному: {}", batch.size(),
+                    e.getMessage());
+        }
+        for (PendingHit pending : batch) {
+            try {
+                pending.result.complete(statsService.createHit(pending.endpointHitDto));
+            } catch (RuntimeException e) {
+                log.warn("Не удалось сохранить EndpointHit {}: {}", pending.endpointHitDto, e.getMessage());
+                pending.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    @AllArgsConstructor
+    private static class PendingHit {
+        private final EndpointHitDto endpointHitDto;
+        private final CompletableFuture<EndpointHitDto> result;
+    }
+}
@@ -0,0 +1,9 @@
+package ru.practicum.stats.service;
+
+import ru.practicum.stats.model.EndpointHit;
+
+import java.util.List;
+
+public interface HitListener {
+    void onHits(List<EndpointHit> hits);
+}
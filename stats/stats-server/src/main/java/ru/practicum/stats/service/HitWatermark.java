@@ -0,0 +1,44 @@
+package ru.practicum.stats.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.practicum.stats.repository.HitJdbcRepository;
+
+import javax.annotation.PostConstruct;
+import java.util.TreeMap;
+
+/**
+ * Граница ленты изменений: наибольший id, до которого все выданные этим сервером id hits
+ * уже закоммичены или откачены. Id выдаются из последовательности до коммита и могут становиться
+ * видимыми не по порядку, поэтому лента не читает дальше незавершенных пачек.
+ */
+@Component
+@RequiredArgsConstructor
+public class HitWatermark {
+    private final HitJdbcRepository hitJdbcRepository;
+    private final TreeMap<Long, Integer> pending = new TreeMap<>();
+    private long lastAllocated;
+
+    @PostConstruct
+    public synchronized void init() {
+        lastAllocated = Math.max(lastAllocated, hitJdbcRepository.findLastId());
+    }
+
+    public synchronized long reserve() {
+        long floor = lastAllocated + 1;
+        pending.merge(floor, 1, Integer::sum);
+        return floor;
+    }
+
+    public synchronized void allocated(long id) {
+        lastAllocated = Math.max(lastAllocated, id);
+    }
+
+    public synchronized void release(long floor) {
+        pending.computeIfPresent(floor, (key, count) -> count == 1 ? null : count - 1);
+    }
+
+    public synchronized long get() {
+        return pending.isEmpty() ? lastAllocated : pending.firstKey() - 1;
+    }
+}
@@ -0,0 +1,289 @@
+package ru.practicum.stats.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.stats.config.StatsServerProperties;
+import ru.practicum.stats.model.Dictionary;
+import ru.practicum.stats.model.EndpointHit;
+import ru.practicum.stats.model.HitCount;
+import ru.practicum.stats.model.HotCounter;
+import ru.practicum.stats.model.HotUri;
+import ru.practicum.stats.model.RollupKey;
+import ru.practicum.stats.model.StatsKey;
+import ru.practicum.stats.model.TimeRange;
+import ru.practicum.stats.repository.DictionaryRepository;
+import ru.practicum.stats.repository.RollupRepository;
+import ru.practicum.stats.repository.SketchRepository;
+import ru.practicum.stats.sketch.HyperLogLog;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class HotStatsService implements HitListener {
+    private static final int EVICTION_PERCENT = 10;
+    private static final int ADMISSION_MISSES = 2;
+    private final RollupRepository rollupRepository;
+    private final SketchRepository sketchRepository;
+    private final DictionaryRepository dictionaryRepository;
+    private final UniqueSketchService uniqueSketchService;
+    private final TransactionTemplate transactionTemplate;
+    private final StatsServerProperties properties;
+    private final Map<Integer, HotUri> uris = new ConcurrentHashMap<>();
+    private final BitSet evicted = new BitSet();
+    private final Map<Integer, LongAdder> misses = new ConcurrentHashMap<>();
+    private final Set<Integer> seeding = ConcurrentHashMap.newKeySet();
+    private final AtomicReference<LocalDateTime> earliest = new AtomicReference<>();
+    private final AtomicReference<LocalDateTime> latest = new AtomicReference<>();
+    private volatile int maxKnownUriId;
+    private volatile boolean complete;
+    private volatile boolean uniqueReady;
+    private volatile boolean ready;
+
+    @PostConstruct
+    public void init() {
+        if (properties.getHot().isEnabled()) {
+            transactionTemplate.executeWithoutResult(status -> rebuild());
+            ready = true;
+        }
+    }
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        if (!ready) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (EndpointHit hit : hits) {
+            HotUri hotUri = uris.get(hit.getUriId());
+            if (hotUri == null) {
+                hotUri = admit(hit.getUriId(), now);
+                if (hotUri == null) {
+                    recordMiss(hit.getUriId());
+                    continue;
+                }
+            }
+            earliest.accumulateAndGet(hit.getTimestamp(), HotStatsService::min);
+            latest.accumulateAndGet(hit.getTimestamp(), HotStatsService::max);
+            hotUri.touch(now);
+            hotUri.getCounters().computeIfAbsent(hit.getAppId(), appId -> new HotCounter(0, new HyperLogLog()))
+                    .add(hit.getIpHash(), hit.getCount());
+        }
+    }
+
+    public Optional<List<HitCount>> findStats(LocalDateTime start, LocalDateTime end, List<Integer> uriIds,
+                                              boolean unique) {
+        if (!ready || (unique && !uniqueReady) || !covers(start, end)) {
+            return Optional.empty();
+        }
+        long now = System.nanoTime();
+        List<HitCount> stats = new ArrayList<>();
+        if (uriIds == null) {
+            if (!complete) {
+                return Optional.empty();
+            }
+            uris.forEach((uriId, hotUri) -> addStats(stats, uriId, hotUri, unique));
+        } else {
+            for (Integer uriId : uriIds) {
+                HotUri hotUri = uris.get(uriId);
+                if (hotUri != null && !seeding.contains(uriId)) {
+                    hotUri.touch(now);
+                    addStats(stats, uriId, hotUri, unique);
+                } else if (hotUri != null || !isBrandNew(uriId)) {
+                    recordMiss(uriId);
+                    return Optional.empty();
+                }
+            }
+        }
+        stats.sort(Comparator.comparingLong(HitCount::getHits).reversed());
+        return Optional.of(stats);
+    }
+
+    @Scheduled(fixedDelayString = "#{@statsServerProperties.hot.admitInterval.toMillis()}")
+    public void admitMissed() {
+        if (!ready || misses.isEmpty()) {
+            return;
+        }
+        int limit = Math.max(1, properties.getHot().getCapacity() * EVICTION_PERCENT / 100);
+        List<Integer> candidates = misses.entrySet().stream()
+                .filter(entry -> entry.getValue().sum() >= ADMISSION_MISSES)
+                .sorted(Comparator.comparingLong((Map.Entry<Integer, LongAdder> entry) -> entry.getValue().sum())
+                        .reversed())
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        misses.clear();
+        List<Integer> admitted = reserve(candidates);
+        if (admitted.isEmpty()) {
+            return;
+        }
+        try {
+            seed(admitted);
+        } catch (RuntimeException e) {
+            admitted.forEach(uris::remove);
+            log.warn("Не удалось загрузить {} URI в таблицу горячих счетчиков: {}", admitted.size(), e.getMessage());
+        } finally {
+            seeding.removeAll(admitted);
+        }
+    }
+
+    public void expire(LocalDateTime before, List<HitCount> expired) {
+        if (!ready) {
+            return;
+        }
+        for (HitCount hitCount : expired) {
+            HotUri hotUri = uris.get(hitCount.getUriId());
+            HotCounter counter = hotUri == null ? null : hotUri.getCounters().get(hitCount.getAppId());
+            if (counter != null) {
+                counter.subtract(hitCount.getHits());
+            }
+        }
+        earliest.accumulateAndGet(before, HotStatsService::max);
+        if (!expired.isEmpty()) {
+            uniqueReady = false;
+        }
+    }
+
+    private void rebuild() {
+        int capacity = properties.getHot().getCapacity();
+        maxKnownUriId = dictionaryRepository.findMaxId(Dictionary.URI);
+        TimeRange bounds = rollupRepository.findBounds();
+        if (bounds != null) {
+            earliest.set(bounds.getFrom());
+            latest.set(bounds.getTo().minusNanos(1));
+        }
+        Map<StatsKey, HyperLogLog> sketches = new HashMap<>();
+        List<HitCount> totals = rollupRepository.findTopTotals(capacity);
+        List<Integer> uriIds = totals.stream().map(HitCount::getUriId).distinct().collect(Collectors.toList());
+        sketchRepository.findAllByUriIds(uriIds, (key, sketch) -> merge(sketches, key, sketch));
+        long now = System.nanoTime();
+        for (HitCount total : totals) {
+            HyperLogLog sketch = sketches.get(new StatsKey(total.getAppId(), total.getUriId()));
+            uris.computeIfAbsent(total.getUriId(), uriId -> new HotUri(now)).getCounters().put(total.getAppId(),
+                    new HotCounter(total.getHits(), sketch == null ? new HyperLogLog() : sketch));
+        }
+        complete = rollupRepository.countUris() <= capacity;
+        uniqueReady = totals.isEmpty() || !sketches.isEmpty();
+        log.info("Загружено {} URI в таблицу горячих счетчиков", uris.size());
+    }
+
+    private synchronized HotUri admit(int uriId, long now) {
+        HotUri hotUri = uris.get(uriId);
+        if (hotUri != null || !isBrandNew(uriId)) {
+            return hotUri;
+        }
+        if (uris.size() >= properties.getHot().getCapacity()) {
+            evictColdest();
+        }
+        hotUri = new HotUri(now);
+        uris.put(uriId, hotUri);
+        return hotUri;
+    }
+
+    private synchronized List<Integer> reserve(List<Integer> uriIds) {
+        long now = System.nanoTime();
+        List<Integer> reserved = new ArrayList<>();
+        for (Integer uriId : uriIds) {
+            if (uris.containsKey(uriId)) {
+                continue;
+            }
+            if (uris.size() >= properties.getHot().getCapacity()) {
+                evictColdest();
+            }
+            seeding.add(uriId);
+            uris.put(uriId, new HotUri(now));
+            reserved.add(uriId);
+        }
+        return reserved;
+    }
+
+    private void seed(List<Integer> uriIds) {
+        Map<StatsKey, HyperLogLog> sketches = new HashMap<>();
+        List<HitCount> totals = transactionTemplate.execute(status -> {
+            sketchRepository.findAllByUriIds(uriIds, (key, sketch) -> merge(sketches, key, sketch));
+            return rollupRepository.findTotals(uriIds);
+        });
+        uniqueSketchService.findPending(new HashSet<>(uriIds), (key, sketch) -> merge(sketches, key, sketch));
+        for (HitCount total : totals == null ? List.<HitCount>of() : totals) {
+            HotUri hotUri = uris.get(total.getUriId());
+            if (hotUri != null) {
+                HyperLogLog sketch = sketches.get(new StatsKey(total.getAppId(), total.getUriId()));
+                hotUri.getCounters().computeIfAbsent(total.getAppId(), appId -> new HotCounter(0, new HyperLogLog()))
+                        .seed(total.getHits(), sketch == null ? new HyperLogLog() : sketch);
+            }
+        }
+        log.debug("В таблицу горячих счетчиков загружено {} URI", uriIds.size());
+    }
+
+    private void recordMiss(int uriId) {
+        if (misses.size() < properties.getHot().getCapacity() || misses.containsKey(uriId)) {
+            misses.computeIfAbsent(uriId, key -> new LongAdder()).increment();
+        }
+    }
+
+    private void evictColdest() {
+        int count = Math.max(1, uris.size() * EVICTION_PERCENT / 100);
+        List<Integer> coldest = uris.entrySet().stream()
+                .sorted(Comparator.comparingLong(entry -> entry.getValue().getLastAccess()))
+                .limit(count)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        for (Integer uriId : coldest) {
+            evicted.set(uriId);
+            uris.remove(uriId);
+        }
+        complete = false;
+        log.debug("Из таблицы горячих счетчиков вытеснено {} URI", coldest.size());
+    }
+
+    private boolean isBrandNew(int uriId) {
+        if (uriId <= maxKnownUriId) {
+            return false;
+        }
+        synchronized (this) {
+            return !evicted.get(uriId);
+        }
+    }
+
+    private boolean covers(LocalDateTime start, LocalDateTime end) {
+        LocalDateTime from = earliest.get();
+        LocalDateTime to = latest.get();
+        return from == null || (!start.isAfter(from) && end.truncatedTo(ChronoUnit.SECONDS).plusSeconds(1).isAfter(to));
+    }
+
+    private static void merge(Map<StatsKey, HyperLogLog> sketches, RollupKey key, HyperLogLog sketch) {
+        sketches.computeIfAbsent(new StatsKey(key.getAppId(), key.getUriId()), k -> new HyperLogLog()).merge(sketch);
+    }
+
+    private static void addStats(List<HitCount> stats, int uriId, HotUri hotUri, boolean unique) {
+        hotUri.getCounters().forEach((appId, counter) ->
+                stats.add(new HitCount(appId, uriId, unique ? counter.estimateUnique() : counter.getHits())));
+    }
+
+    private static LocalDateTime min(LocalDateTime current, LocalDateTime time) {
+        return current == null || time.isBefore(current) ? time : current;
+    }
+
+    private static LocalDateTime max(LocalDateTime current, LocalDateTime time) {
+        return current == null || time.isAfter(current) ? time : current;
+    }
+}
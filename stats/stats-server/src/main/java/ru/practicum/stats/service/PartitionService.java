@@ -0,0 +1,79 @@
+package ru.practicum.stats.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.practicum.stats.config.StatsServerProperties;
+import ru.practicum.stats.model.HitCount;
+import ru.practicum.stats.repository.CompactionRepository;
+import ru.practicum.stats.repository.PartitionRepository;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PartitionService {
+    private final PartitionRepository partitionRepository;
+    private final CompactionRepository compactionRepository;
+    private final HotStatsService hotStatsService;
+    private final ArchiveService archiveService;
+    private final StatsServerProperties properties;
+
+    @PostConstruct
+    public void init() {
+        maintainPartitions();
+    }
+
+    @Scheduled(cron = "${stats.partition.cron:0 0 * * * *}")
+    public void maintainPartitions() {
+        LocalDate today = LocalDate.now();
+        Set<LocalDate> existing = new HashSet<>(partitionRepository.findPartitionDays());
+        Set<LocalDate> required = new HashSet<>(partitionRepository.findDefaultPartitionDays());
+        for (int i = 0; i <= properties.getPartition().getPremakeDays(); i++) {
+            required.add(today.plusDays(i));
+        }
+        int retentionDays = properties.getPartition().getRetentionDays();
+        LocalDate horizon = today.minusDays(retentionDays);
+        LocalDateTime compacted = compactionRepository.findHorizon();
+        for (LocalDate day : required) {
+            if (!existing.contains(day) && (retentionDays <= 0 || !day.isBefore(horizon))
+                    && (compacted == null || !day.isBefore(compacted.toLocalDate()))) {
+                partitionRepository.createPartition(day);
+                existing.add(day);
+                log.info("Создана партиция hits за {}", day);
+            }
+        }
+        if (retentionDays > 0) {
+            dropExpired(existing, horizon);
+        }
+    }
+
+    private void dropExpired(Set<LocalDate> existing, LocalDate horizon) {
+        List<LocalDate> expired = existing.stream().filter(day -> day.isBefore(horizon)).sorted()
+                .collect(Collectors.toList());
+        for (LocalDate day : expired) {
+            partitionRepository.dropPartition(day);
+            log.info("Удалена партиция hits за {}", day);
+        }
+        int deleted = partitionRepository.deleteFromDefaultPartitionBefore(horizon.atStartOfDay());
+        if (deleted > 0) {
+            log.info("Удалено {} устаревших EndpointHit из партиции по умолчанию", deleted);
+        }
+        List<HitCount> expiredHits = new ArrayList<>();
+        compactionRepository.deleteExpired(horizon.atStartOfDay(), expiredHits::add);
+        hotStatsService.expire(horizon.atStartOfDay(), expiredHits);
+        archiveService.deleteBefore(horizon);
+        if (!expiredHits.isEmpty()) {
+            log.info("Удалены агрегаты статистики до {} по {} uri", horizon, expiredHits.size());
+        }
+    }
+}
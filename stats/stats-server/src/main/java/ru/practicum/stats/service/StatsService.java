@@ -1,13 +1,40 @@
 package ru.practicum.stats.service;
 
 import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.HitChangesDto;
+import ru.practicum.dto.TimeInterval;
+import ru.practicum.dto.TimeSeriesDto;
 import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.dto.ViewsDto;
 
 import java.time.LocalDateTime;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public interface StatsService {
     EndpointHitDto createHit(EndpointHitDto endpointHitDto);
 
-    List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique);
+    long createHits(Iterator<EndpointHitDto> endpointHitDtos);
+
+    List<EndpointHitDto> createHitBatch(List<EndpointHitDto> endpointHitDtos);
+
+    List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique,
+                                Boolean approximate);
+
+    List<ViewStatsDto> getStats(Map<String, LocalDateTime> uriStarts, LocalDateTime end, Boolean unique,
+                                Boolean approximate);
+
+    ViewsDto getViews(long[] eventIds, long[] starts, LocalDateTime end, boolean unique, boolean approximate);
+
+    List<ViewStatsDto> getTopStats(LocalDateTime start, LocalDateTime end, int limit, boolean exact);
+
+    HitChangesDto getChanges(String cursor, int limit);
+
+    TimeSeriesDto getTimeSeries(LocalDateTime start, LocalDateTime end, List<String> uris, TimeInterval interval,
+                                boolean unique);
+
+    void streamStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique, Boolean approximate,
+                     Consumer<ViewStatsDto> consumer);
 }
@@ -3,50 +3,440 @@ package ru.practicum.stats.service;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.HitChangesDto;
+import ru.practicum.dto.LongLongMap;
+import ru.practicum.dto.TimeInterval;
+import ru.practicum.dto.TimeSeriesDto;
 import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.dto.ViewsDto;
+import ru.practicum.stats.config.StatsServerProperties;
 import ru.practicum.stats.mapper.EndpointHitMapper;
+import ru.practicum.stats.model.BucketPlan;
 import ru.practicum.stats.model.EndpointHit;
-import ru.practicum.stats.repository.StatsRepository;
+import ru.practicum.stats.model.HitCount;
+import ru.practicum.stats.model.RollupKey;
+import ru.practicum.stats.model.StatsKey;
+import ru.practicum.stats.model.TimeBucket;
+import ru.practicum.stats.model.TimeRange;
+import ru.practicum.stats.model.UriPlan;
+import ru.practicum.stats.repository.CompactionRepository;
+import ru.practicum.stats.repository.FlushStateRepository;
+import ru.practicum.stats.repository.HitJdbcRepository;
+import ru.practicum.stats.repository.RollupRepository;
+import ru.practicum.stats.sketch.SpaceSaving;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
-@Transactional(readOnly = true)
+@Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
 public class StatsServiceImpl implements StatsService {
-    private final StatsRepository statsRepository;
+    private final HitJdbcRepository hitJdbcRepository;
+    private final RollupRepository rollupRepository;
+    private final CompactionRepository compactionRepository;
+    private final FlushStateRepository flushStateRepository;
+    private final UniqueSketchService uniqueSketchService;
+    private final DictionaryService dictionaryService;
+    private final HotStatsService hotStatsService;
+    private final TopStatsService topStatsService;
+    private final HitWatermark hitWatermark;
+    private final ColumnarStatsService columnarStatsService;
+    private final ArchiveService archiveService;
+    private final List<HitListener> hitListeners;
+    private final TransactionTemplate transactionTemplate;
+    private final StatsServerProperties properties;
 
     @Override
-    @Transactional
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public EndpointHitDto createHit(EndpointHitDto endpointHitDto) {
-        EndpointHit endpointHit = statsRepository.save(EndpointHitMapper.toEndpointHit(endpointHitDto));
+        EndpointHit endpointHit = EndpointHitMapper.toEndpointHit(endpointHitDto);
+        dictionaryService.resolve(List.of(endpointHit));
+        transactionTemplate.executeWithoutResult(status -> saveBatch(List.of(endpointHit)));
         log.info("Создан новый EndpointHit {}", endpointHitDto);
         return EndpointHitMapper.toEndpointHitDto(endpointHit);
     }
 
     @Override
-    public List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique) {
+    @Transactional
+    public long createHits(Iterator<EndpointHitDto> endpointHitDtos) {
+        int batchSize = properties.getIngest().getBatchSize();
+        List<EndpointHit> batch = new ArrayList<>(batchSize);
+        long count = 0;
+        while (endpointHitDtos.hasNext()) {
+            batch.add(EndpointHitMapper.toEndpointHit(endpointHitDtos.next()));
+            if (batch.size() == batchSize) {
+                count += saveBatch(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            count += saveBatch(batch);
+        }
+        log.info("Сохранено {} EndpointHit", count);
+        return count;
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<EndpointHitDto> createHitBatch(List<EndpointHitDto> endpointHitDtos) {
+        List<EndpointHit> hits = endpointHitDtos.stream()
+                .map(EndpointHitMapper::toEndpointHit)
+                .collect(Collectors.toList());
+        dictionaryService.resolve(hits);
+        int batchSize = properties.getIngest().getBatchSize();
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int from = 0; from < hits.size(); from += batchSize) {
+                saveBatch(hits.subList(from, Math.min(hits.size(), from + batchSize)));
+            }
+        });
+        log.info("Сохранено {} EndpointHit одной транзакцией", hits.size());
+        return hits.stream()
+                .map(EndpointHitMapper::toEndpointHitDto)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique,
+                                       Boolean approximate) {
+        List<ViewStatsDto> stats = new ArrayList<>();
+        streamStats(start, end, uris, unique, approximate, stats::add);
+        return stats;
+    }
+
+    @Override
+    public List<ViewStatsDto> getStats(Map<String, LocalDateTime> uriStarts, LocalDateTime end, Boolean unique,
+                                       Boolean approximate) {
+        log.info("Получена статистика по {} uri с индивидуальным началом периода по {}", uriStarts.size(), end);
+        List<HitCount> hitCounts = new ArrayList<>();
+        boolean estimated = findStats(uriStarts, end, unique, approximate, hitCounts::add);
+        List<ViewStatsDto> stats = new ArrayList<>(hitCounts.size());
+        hitCounts.forEach(hitCount -> stats.add(dictionaryService.toViewStats(hitCount, estimated)));
+        return stats;
+    }
+
+    @Override
+    public ViewsDto getViews(long[] eventIds, long[] starts, LocalDateTime end, boolean unique, boolean approximate) {
+        if (eventIds.length != starts.length) {
+            throw new IllegalArgumentException("Количество eventIds и starts должно совпадать");
+        }
+        String uriPattern = properties.getViews().getUriPattern();
+        Map<String, LocalDateTime> uriStarts = new HashMap<>();
+        Map<String, Long> uriEventIds = new HashMap<>();
+        for (int i = 0; i < eventIds.length; i++) {
+            String uri = String.format(uriPattern, eventIds[i]);
+            uriStarts.merge(uri, LocalDateTime.ofEpochSecond(starts[i], 0, ZoneOffset.UTC),
+                    (current, start) -> start.isBefore(current) ? start : current);
+            uriEventIds.put(uri, eventIds[i]);
+        }
+        LongLongMap views = new LongLongMap(eventIds.length);
+        Map<Integer, Long> uriIdEventIds = new HashMap<>();
+        boolean estimated = findStats(uriStarts, end, unique, approximate, hitCount -> {
+            long eventId = uriIdEventIds.computeIfAbsent(hitCount.getUriId(),
+                    uriId -> uriEventIds.get(dictionaryService.getUri(uriId)));
+            views.put(eventId, views.get(eventId, 0) + hitCount.getHits());
+        });
+        log.info("Получены просмотры {} событий по {}", eventIds.length, end);
+        long[] ids = new long[views.size()];
+        long[] hits = new long[views.size()];
+        int[] index = {0};
+        views.forEach((eventId, count) -> {
+            ids[index[0]] = eventId;
+            hits[index[0]++] = count;
+        });
+        return new ViewsDto(ids, hits, estimated ? Boolean.TRUE : null);
+    }
+
+    @Override
+    public List<ViewStatsDto> getTopStats(LocalDateTime start, LocalDateTime end, int limit, boolean exact) {
         if (start.isAfter(end)) {
             log.info("start не может быть позже end");
             throw new IllegalArgumentException("start не может быть позже end");
         }
-        log.info("Получена статистика за период с {} по {}", start, end);
+        int capacity = properties.getTop().getCapacity();
+        if (limit < 1 || limit > capacity) {
+            throw new IllegalArgumentException("limit должен быть от 1 до " + capacity);
+        }
+        log.info("Получены {} самых популярных URI за период с {} по {}", limit, start, end);
+        LocalDateTime horizon = compactionRepository.findHorizon();
+        LocalDateTime hourEnd = TimeBucket.HOUR.ceil(end.truncatedTo(ChronoUnit.SECONDS).plusSeconds(1));
+        SpaceSaving summary = topStatsService.summarize(BucketPlan.of(TimeBucket.HOUR.floor(start),
+                hourEnd.minusSeconds(1), horizon, TimeBucket.HOUR));
+        List<HitCount> top = new ArrayList<>(limit);
+        if (!exact) {
+            for (SpaceSaving.Counter counter : summary.top(limit)) {
+                StatsKey key = TopStatsService.toStatsKey(counter.getKey());
+                top.add(new HitCount(key.getAppId(), key.getUriId(), counter.getCount()));
+            }
+        } else {
+            Set<StatsKey> candidates = new HashSet<>();
+            summary.candidates(limit).forEach(counter -> candidates.add(TopStatsService.toStatsKey(counter.getKey())));
+            if (!candidates.isEmpty()) {
+                List<Integer> uriIds = candidates.stream().map(StatsKey::getUriId).distinct()
+                        .collect(Collectors.toList());
+                rollupRepository.findStats(BucketPlan.of(start, end, horizon), uriIds, hitCount -> {
+                    if (top.size() < limit
+                            && candidates.contains(new StatsKey(hitCount.getAppId(), hitCount.getUriId()))) {
+                        top.add(hitCount);
+                    }
+                });
+            }
+        }
+        return dictionaryService.toViewStats(top);
+    }
+
+    @Override
+    public HitChangesDto getChanges(String cursor, int limit) {
+        long upTo = hitWatermark.get();
+        if (cursor == null) {
+            return new HitChangesDto(Long.toString(upTo), false, false, List.of());
+        }
+        int maxLimit = properties.getChanges().getMaxLimit();
+        if (limit < 1 || limit > maxLimit) {
+            throw new IllegalArgumentException("limit должен быть от 1 до " + maxLimit);
+        }
+        long after;
+        try {
+            after = Long.parseLong(cursor);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Некорректный cursor: " + cursor);
+        }
+        Long deletedId = flushStateRepository.findFlushedId(FlushStateRepository.DELETED_HITS);
+        if (deletedId != null && after < deletedId) {
+            log.info("cursor {} устарел: удалены посещения до id {}", cursor, deletedId);
+            return new HitChangesDto(Long.toString(upTo), false, true, List.of());
+        }
+        if (after >= upTo) {
+            return new HitChangesDto(cursor, false, false, List.of());
+        }
+        long pageEnd = hitJdbcRepository.findPageEnd(after, upTo, limit);
+        List<HitCount> changes = new ArrayList<>();
+        hitJdbcRepository.findChanges(after, pageEnd, changes::add);
+        log.info("Получены изменения по {} uri после cursor {}", changes.size(), cursor);
+        return new HitChangesDto(Long.toString(pageEnd), pageEnd < upTo, false,
+                dictionaryService.toViewStats(changes));
+    }
+
+    @Override
+    public TimeSeriesDto getTimeSeries(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                       TimeInterval interval, boolean unique) {
+        if (start.isAfter(end)) {
+            log.info("start не может быть позже end");
+            throw new IllegalArgumentException("start не может быть позже end");
+        }
+        ChronoUnit unit = interval.getUnit();
+        LocalDateTime from = start.truncatedTo(unit);
+        LocalDateTime to = end.truncatedTo(unit).plus(1, unit);
+        long buckets = unit.between(from, to);
+        int maxBuckets = properties.getTimeSeries().getMaxBuckets();
+        if (buckets > maxBuckets) {
+            throw new IllegalArgumentException("Количество интервалов не может превышать " + maxBuckets);
+        }
+        LocalDateTime horizon = compactionRepository.findHorizon();
+        boolean compacted = horizon != null && from.isBefore(horizon);
+        if (compacted && interval != TimeInterval.DAY) {
+            throw new IllegalArgumentException("Статистика с интервалом " + interval + " доступна только с " + horizon);
+        }
+        log.info("Получены ряды посещений {} uri за период с {} по {} с интервалом {}", uris.size(), start, end,
+                interval);
+        TimeSeriesDto timeSeries = new TimeSeriesDto(from, interval, (int) buckets, new ArrayList<>(),
+                new ArrayList<>(), new ArrayList<>());
+        List<Integer> uriIds = dictionaryService.findUriIds(uris);
+        if (uriIds.isEmpty()) {
+            return timeSeries;
+        }
+        TimeRange compactedRange = compacted ? new TimeRange(from, to.isBefore(horizon) ? to : horizon) : null;
+        TimeRange range = new TimeRange(compacted ? compactedRange.getTo() : from, to);
+        Map<StatsKey, long[]> series = new HashMap<>();
+        BiConsumer<RollupKey, Long> collector = (key, hits) -> {
+            long[] keySeries = series.computeIfAbsent(new StatsKey(key.getAppId(), key.getUriId()),
+                    k -> new long[(int) buckets]);
+            keySeries[(int) unit.between(from, key.getBucket())] += hits;
+        };
         if (unique) {
-            if (uris == null || uris.isEmpty()) {
-                return statsRepository.findUniqueIpStats(start, end);
-            } else {
-                return statsRepository.findUniqueIpStatsWithUris(start, end, uris);
+            if (compacted) {
+                uniqueSketchService.estimateDays(compactedRange, uriIds, collector);
+            }
+            hitJdbcRepository.findUniqueSeries(range, interval, uriIds, collector);
+        } else {
+            rollupRepository.findSeries(compactedRange, range, interval, uriIds, collector);
+        }
+        List<HitCount> totals = new ArrayList<>(series.size());
+        series.forEach((key, hits) -> totals.add(new HitCount(key.getAppId(), key.getUriId(),
+                Arrays.stream(hits).sum())));
+        totals.sort(Comparator.comparingLong(HitCount::getHits).reversed());
+        for (HitCount total : totals) {
+            ViewStatsDto viewStats = dictionaryService.toViewStats(total);
+            timeSeries.getApps().add(viewStats.getApp());
+            timeSeries.getUris().add(viewStats.getUri());
+            timeSeries.getHits().add(series.get(new StatsKey(total.getAppId(), total.getUriId())));
+        }
+        return timeSeries;
+    }
+
+    @Override
+    public void streamStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique,
+                            Boolean approximate, Consumer<ViewStatsDto> consumer) {
+        if (start.isAfter(end)) {
+            log.info("start не может быть позже end");
+            throw new IllegalArgumentException("start не может быть позже end");
+        }
+        log.info("Получена статистика за период с {} по {}", start, end);
+        List<Integer> uriIds = uris == null || uris.isEmpty() ? null : dictionaryService.findUriIds(uris);
+        if (uriIds != null && uriIds.isEmpty()) {
+            return;
+        }
+        Consumer<HitCount> decoder = hitCount -> consumer.accept(dictionaryService.toViewStats(hitCount));
+        Consumer<HitCount> estimateDecoder = hitCount ->
+                consumer.accept(dictionaryService.toViewStats(hitCount, true));
+        Optional<List<HitCount>> columnarStats = columnarStatsService.findStats(start, end, uriIds, unique);
+        if (columnarStats.isPresent()) {
+            columnarStats.get().forEach(decoder);
+            return;
+        }
+        if (!unique || approximate) {
+            Optional<List<HitCount>> hotStats = hotStatsService.findStats(start, end, uriIds, unique);
+            if (hotStats.isPresent()) {
+                hotStats.get().forEach(unique ? estimateDecoder : decoder);
+                return;
+            }
+        }
+        LocalDateTime horizon = compactionRepository.findHorizon();
+        LocalDateTime archivedFrom = archiveService.findArchivedFrom();
+        if (horizon != null && start.isBefore(horizon) && archivedFrom != null && !start.isBefore(archivedFrom)
+                && !(unique && approximate)) {
+            archiveService.findStats(BucketPlan.of(start, end, horizon, archivedFrom,
+                    unique ? new TimeBucket[0] : TimeBucket.values()), uriIds, unique).forEach(decoder);
+        } else if (unique && (approximate || (horizon != null && start.isBefore(horizon)))) {
+            uniqueSketchService.estimateUniqueStats(BucketPlan.of(start, end, horizon, TimeBucket.HOUR), uriIds)
+                    .forEach(estimateDecoder);
+        } else if (unique) {
+            hitJdbcRepository.findUniqueStats(BucketPlan.of(start, end, horizon, new TimeBucket[0]).getRawRanges(),
+                    uriIds, decoder);
+        } else {
+            rollupRepository.findStats(BucketPlan.of(start, end, horizon), uriIds, decoder);
+        }
+    }
+
+    private boolean findStats(Map<String, LocalDateTime> uriStarts, LocalDateTime end, boolean unique,
+                              boolean approximate, Consumer<HitCount> decoder) {
+        if (uriStarts.values().stream().anyMatch(start -> start.isAfter(end))) {
+            log.info("start не может быть позже end");
+            throw new IllegalArgumentException("start не может быть позже end");
+        }
+        Map<String, Integer> uriIds = dictionaryService.findUriIdMap(uriStarts.keySet());
+        if (uriIds.isEmpty()) {
+            return false;
+        }
+        Map<Integer, LocalDateTime> uriIdStarts = new HashMap<>();
+        uriIds.forEach((uri, uriId) -> uriIdStarts.put(uriId, uriStarts.get(uri)));
+        Optional<List<HitCount>> columnarStats = columnarStatsService.findStats(uriIdStarts, end, unique);
+        if (columnarStats.isPresent()) {
+            columnarStats.get().forEach(decoder);
+            return false;
+        }
+        if (!unique || approximate) {
+            LocalDateTime latestStart = uriStarts.values().stream().max(LocalDateTime::compareTo).orElse(end);
+            Optional<List<HitCount>> hotStats = hotStatsService.findStats(latestStart, end,
+                    new ArrayList<>(uriIds.values()), unique);
+            if (hotStats.isPresent()) {
+                hotStats.get().forEach(decoder);
+                return unique;
             }
+        }
+        LocalDateTime horizon = compactionRepository.findHorizon();
+        LocalDateTime archivedFrom = archiveService.findArchivedFrom();
+        boolean compacted = horizon != null && uriIds.keySet().stream()
+                .anyMatch(uri -> uriStarts.get(uri).isBefore(horizon));
+        boolean archived = compacted && archivedFrom != null && !(unique && approximate) && uriIds.keySet().stream()
+                .noneMatch(uri -> uriStarts.get(uri).isBefore(archivedFrom));
+        boolean estimate = approximate || (compacted && !archived);
+        TimeBucket[] buckets = unique ? (estimate ? new TimeBucket[]{TimeBucket.HOUR} : new TimeBucket[0])
+                : TimeBucket.values();
+        List<UriPlan> plans = new ArrayList<>(uriIds.size());
+        uriIds.forEach((uri, uriId) -> plans.add(new UriPlan(uriId,
+                BucketPlan.of(uriStarts.get(uri), end, horizon, archived ? archivedFrom : null, buckets))));
+        if (archived) {
+            archiveService.findStats(plans, unique).forEach(decoder);
+        } else if (unique && estimate) {
+            uniqueSketchService.estimateUniqueStats(plans).forEach(decoder);
+        } else if (unique) {
+            hitJdbcRepository.findUniqueStats(plans, decoder);
         } else {
-            if (uris == null || uris.isEmpty()) {
-                return statsRepository.findStatsByDate(start, end);
-            } else {
-                return statsRepository.findStatsWithUris(start, end, uris);
+            rollupRepository.findStats(plans, decoder);
+        }
+        return unique && estimate;
+    }
+
+    private int saveBatch(List<EndpointHit> batch) {
+        dictionaryService.resolve(batch);
+        long floor = hitWatermark.reserve();
+        boolean transactional = TransactionSynchronizationManager.isSynchronizationActive();
+        if (transactional) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    hitWatermark.release(floor);
+                }
+            });
+        }
+        int count;
+        try {
+            count = hitJdbcRepository.saveAll(batch);
+            hitWatermark.allocated(batch.get(batch.size() - 1).getId());
+        } finally {
+            if (!transactional) {
+                hitWatermark.release(floor);
+            }
+        }
+        updateRollups(batch);
+        publish(new ArrayList<>(batch));
+        return count;
+    }
+
+    private void publish(List<EndpointHit> hits) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            hitListeners.forEach(listener -> listener.onHits(hits));
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                hitListeners.forEach(listener -> listener.onHits(hits));
+            }
+        });
+    }
+
+    private void updateRollups(List<EndpointHit> hits) {
+        for (TimeBucket bucket : TimeBucket.values()) {
+            Map<RollupKey, Long> rollups = new HashMap<>();
+            for (EndpointHit hit : hits) {
+                rollups.merge(new RollupKey(hit.getAppId(), hit.getUriId(), bucket.floor(hit.getTimestamp())),
+                        (long) hit.getCount(), Long::sum);
             }
+            rollupRepository.increment(bucket, rollups);
         }
     }
 }
@@ -0,0 +1,194 @@
+package ru.practicum.stats.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.stats.config.StatsServerProperties;
+import ru.practicum.stats.model.BucketPlan;
+import ru.practicum.stats.model.EndpointHit;
+import ru.practicum.stats.model.RollupKey;
+import ru.practicum.stats.model.StatsKey;
+import ru.practicum.stats.model.TimeBucket;
+import ru.practicum.stats.model.TimeRange;
+import ru.practicum.stats.repository.CompactionRepository;
+import ru.practicum.stats.repository.FlushStateRepository;
+import ru.practicum.stats.repository.HitJdbcRepository;
+import ru.practicum.stats.repository.RollupRepository;
+import ru.practicum.stats.repository.TopRepository;
+import ru.practicum.stats.sketch.SpaceSaving;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TopStatsService implements HitListener {
+    private static final int BACKFILL_BUCKETS = 100;
+    private static final String FLUSH_STATE = "top_hour";
+    private final TopRepository topRepository;
+    private final RollupRepository rollupRepository;
+    private final HitJdbcRepository hitJdbcRepository;
+    private final CompactionRepository compactionRepository;
+    private final FlushStateRepository flushStateRepository;
+    private final HitWatermark hitWatermark;
+    private final TransactionTemplate transactionTemplate;
+    private final StatsServerProperties properties;
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private volatile Map<LocalDateTime, SpaceSaving> pending = new ConcurrentHashMap<>();
+    private volatile Map<LocalDateTime, SpaceSaving> flushing = Collections.emptyMap();
+    private long savedFlushedId = -1;
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        Map<LocalDateTime, Map<Long, Long>> counts = new HashMap<>();
+        for (EndpointHit hit : hits) {
+            counts.computeIfAbsent(TimeBucket.HOUR.floor(hit.getTimestamp()), bucket -> new HashMap<>())
+                    .merge(toKey(hit.getAppId(), hit.getUriId()), (long) hit.getCount(), Long::sum);
+        }
+        swapLock.readLock().lock();
+        try {
+            counts.forEach((bucket, keys) -> pending.compute(bucket, (k, summary) -> {
+                SpaceSaving result = summary == null ? new SpaceSaving(properties.getTop().getCapacity()) : summary;
+                keys.forEach(result::add);
+                return result;
+            }));
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    public SpaceSaving summarize(BucketPlan plan) {
+        List<TimeRange> hourRanges = plan.getRanges(TimeBucket.HOUR);
+        SpaceSaving result = new SpaceSaving(properties.getTop().getCapacity());
+        topRepository.findAll(hourRanges, plan.getCompactedRanges(), (bucket, summary) -> result.merge(summary));
+        for (Map<LocalDateTime, SpaceSaving> source : List.of(flushing, pending)) {
+            for (LocalDateTime bucket : source.keySet()) {
+                if (contains(hourRanges, bucket)) {
+                    source.computeIfPresent(bucket, (k, summary) -> {
+                        result.merge(summary);
+                        return summary;
+                    });
+                }
+            }
+        }
+        return result;
+    }
+
+    @Scheduled(fixedDelayString = "#{@statsServerProperties.top.flushInterval.toMillis()}")
+    public synchronized void flush() {
+        long flushedId = hitWatermark.get();
+        swapLock.writeLock().lock();
+        try {
+            flushing = pending;
+            pending = new ConcurrentHashMap<>();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        Map<LocalDateTime, SpaceSaving> summaries = flushing;
+        if (summaries.isEmpty() && flushedId == savedFlushedId) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!summaries.isEmpty()) {
+                topRepository.findHours(summaries.keySet()).forEach((bucket, summary) ->
+                        summaries.computeIfPresent(bucket, (k, current) -> {
+                            current.merge(summary);
+                            return current;
+                        }));
+                topRepository.saveHours(summaries);
+            }
+            flushStateRepository.saveFlushedId(FLUSH_STATE, flushedId);
+        });
+        savedFlushedId = flushedId;
+        flushing = Collections.emptyMap();
+        if (!summaries.isEmpty()) {
+            log.debug("Сохранено {} сводок популярных URI за часовые интервалы", summaries.size());
+        }
+    }
+
+    @PostConstruct
+    public void recover() {
+        if (topRepository.isEmpty()) {
+            backfill();
+            return;
+        }
+        Long flushedId = flushStateRepository.findFlushedId(FLUSH_STATE);
+        LocalDateTime horizon = compactionRepository.findHorizon();
+        List<LocalDateTime> hours = hitJdbcRepository.findHoursAfter(flushedId == null ? 0 : flushedId).stream()
+                .filter(hour -> horizon == null || !hour.isBefore(horizon))
+                .collect(Collectors.toList());
+        if (hours.isEmpty()) {
+            return;
+        }
+        log.info("Восстановление сводок популярных URI за {} часовых интервалов", hours.size());
+        long recoveredId = hitWatermark.get();
+        transactionTemplate.executeWithoutResult(status -> {
+            Map<LocalDateTime, SpaceSaving> summaries = new HashMap<>();
+            rollupRepository.findAll(TimeBucket.HOUR, hours, (key, hits) -> summaries.computeIfAbsent(key.getBucket(),
+                    bucket -> new SpaceSaving(properties.getTop().getCapacity()))
+                    .add(toKey(key.getAppId(), key.getUriId()), hits));
+            topRepository.saveHours(summaries);
+            flushStateRepository.saveFlushedId(FLUSH_STATE, recoveredId);
+        });
+    }
+
+    private void backfill() {
+        log.info("Построение сводок популярных URI по сохраненной статистике");
+        long backfilledId = hitWatermark.get();
+        transactionTemplate.executeWithoutResult(status -> {
+            Map<LocalDateTime, SpaceSaving> hours = new HashMap<>();
+            rollupRepository.findAll(TimeBucket.HOUR, (key, hits) -> backfill(hours, key, hits,
+                    topRepository::saveHours));
+            topRepository.saveHours(hours);
+            Map<LocalDateTime, SpaceSaving> days = new HashMap<>();
+            rollupRepository.findAllDays((key, hits) -> backfill(days, key, hits, topRepository::saveDays));
+            topRepository.saveDays(days);
+            flushStateRepository.saveFlushedId(FLUSH_STATE, backfilledId);
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    public static StatsKey toStatsKey(long key) {
+        return new StatsKey((int) (key >>> 32), (int) key);
+    }
+
+    private void backfill(Map<LocalDateTime, SpaceSaving> summaries, RollupKey key, long hits,
+                          Consumer<Map<LocalDateTime, SpaceSaving>> saver) {
+        if (!summaries.containsKey(key.getBucket()) && summaries.size() == BACKFILL_BUCKETS) {
+            saver.accept(summaries);
+            summaries.clear();
+        }
+        summaries.computeIfAbsent(key.getBucket(), bucket -> new SpaceSaving(properties.getTop().getCapacity()))
+                .add(toKey(key.getAppId(), key.getUriId()), hits);
+    }
+
+    private static long toKey(int appId, int uriId) {
+        return (long) appId << 32 | (uriId & 0xffffffffL);
+    }
+
+    private static boolean contains(List<TimeRange> ranges, LocalDateTime bucket) {
+        for (TimeRange range : ranges) {
+            if (!bucket.isBefore(range.getFrom()) && bucket.isBefore(range.getTo())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,213 @@
+package ru.practicum.stats.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.stats.model.BucketPlan;
+import ru.practicum.stats.model.EndpointHit;
+import ru.practicum.stats.model.HitCount;
+import ru.practicum.stats.model.RollupKey;
+import ru.practicum.stats.model.StatsKey;
+import ru.practicum.stats.model.TimeBucket;
+import ru.practicum.stats.model.TimeRange;
+import ru.practicum.stats.model.UriPlan;
+import ru.practicum.stats.repository.FlushStateRepository;
+import ru.practicum.stats.repository.HitJdbcRepository;
+import ru.practicum.stats.repository.SketchRepository;
+import ru.practicum.stats.sketch.Hashing;
+import ru.practicum.stats.sketch.HyperLogLog;
+import ru.practicum.stats.utils.IpAddresses;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UniqueSketchService implements HitListener {
+    private static final int BACKFILL_BATCH_SIZE = 10_000;
+    private static final String FLUSH_STATE = "hll_hour";
+    private final SketchRepository sketchRepository;
+    private final HitJdbcRepository hitJdbcRepository;
+    private final FlushStateRepository flushStateRepository;
+    private final HitWatermark hitWatermark;
+    private final TransactionTemplate transactionTemplate;
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private volatile Map<RollupKey, HyperLogLog> pending = new ConcurrentHashMap<>();
+    private volatile Map<RollupKey, HyperLogLog> flushing = Collections.emptyMap();
+    private long savedFlushedId = -1;
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        swapLock.readLock().lock();
+        try {
+            for (EndpointHit hit : hits) {
+                RollupKey key = new RollupKey(hit.getAppId(), hit.getUriId(),
+                        TimeBucket.HOUR.floor(hit.getTimestamp()));
+                pending.compute(key, (k, sketch) -> {
+                    HyperLogLog result = sketch == null ? new HyperLogLog() : sketch;
+                    result.addHash(hit.getIpHash());
+                    return result;
+                });
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    @Transactional(readOnly = true)
+    public List<HitCount> estimateUniqueStats(BucketPlan plan, List<Integer> uriIds) {
+        List<TimeRange> hourRanges = plan.getRanges(TimeBucket.HOUR);
+        Set<Integer> uriFilter = uriIds == null ? null : new HashSet<>(uriIds);
+        Map<StatsKey, HyperLogLog> sketches = new HashMap<>();
+        sketchRepository.findAllCompacted(plan.getCompactedRanges(), uriIds,
+                (key, sketch) -> merge(sketches, key, sketch));
+        sketchRepository.findAll(hourRanges, uriIds, (key, sketch) -> merge(sketches, key, sketch));
+        mergeInMemory(sketches, (uriId, bucket) ->
+                (uriFilter == null || uriFilter.contains(uriId)) && contains(hourRanges, bucket));
+        hitJdbcRepository.findDistinctIps(plan.getRawRanges(), uriIds, (key, ip) -> addIp(sketches, key, ip));
+        return estimate(sketches);
+    }
+
+    @Transactional(readOnly = true)
+    public List<HitCount> estimateUniqueStats(List<UriPlan> plans) {
+        Map<Integer, List<TimeRange>> hourRanges = new HashMap<>();
+        plans.forEach(plan -> hourRanges.put(plan.getUriId(), plan.getPlan().getRanges(TimeBucket.HOUR)));
+        Map<StatsKey, HyperLogLog> sketches = new HashMap<>();
+        sketchRepository.findAllCompacted(plans, (key, sketch) -> merge(sketches, key, sketch));
+        sketchRepository.findAll(plans, (key, sketch) -> merge(sketches, key, sketch));
+        mergeInMemory(sketches, (uriId, bucket) ->
+                hourRanges.containsKey(uriId) && contains(hourRanges.get(uriId), bucket));
+        hitJdbcRepository.findDistinctIps(plans, (key, ip) -> addIp(sketches, key, ip));
+        return estimate(sketches);
+    }
+
+    @Transactional(readOnly = true)
+    public void estimateDays(TimeRange range, List<Integer> uriIds, BiConsumer<RollupKey, Long> consumer) {
+        sketchRepository.findAllCompacted(List.of(range), uriIds,
+                (key, sketch) -> consumer.accept(key, sketch.estimate()));
+    }
+
+    public void findPending(Set<Integer> uriIds, BiConsumer<RollupKey, HyperLogLog> consumer) {
+        forEachInMemory((uriId, bucket) -> uriIds.contains(uriId), consumer);
+    }
+
+    @Scheduled(fixedDelayString = "#{@statsServerProperties.hll.flushInterval.toMillis()}")
+    public synchronized void flush() {
+        long flushedId = hitWatermark.get();
+        swapLock.writeLock().lock();
+        try {
+            flushing = pending;
+            pending = new ConcurrentHashMap<>();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        Map<RollupKey, HyperLogLog> sketches = flushing;
+        if (sketches.isEmpty() && flushedId == savedFlushedId) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!sketches.isEmpty()) {
+                Map<RollupKey, HyperLogLog> stored = sketchRepository.findAllByKeys(
+                        new ArrayList<>(sketches.keySet()));
+                stored.forEach((key, sketch) -> sketches.computeIfPresent(key, (k, current) -> {
+                    current.merge(sketch);
+                    return current;
+                }));
+                sketchRepository.saveAll(sketches);
+            }
+            flushStateRepository.saveFlushedId(FLUSH_STATE, flushedId);
+        });
+        savedFlushedId = flushedId;
+        flushing = Collections.emptyMap();
+        if (!sketches.isEmpty()) {
+            log.debug("Сохранено {} HyperLogLog за часовые интервалы", sketches.size());
+        }
+    }
+
+    @PostConstruct
+    public void recover() {
+        Long flushedId = flushStateRepository.findFlushedId(FLUSH_STATE);
+        List<LocalDateTime> hours = hitJdbcRepository.findHoursAfter(flushedId == null ? 0 : flushedId);
+        if (hours.isEmpty()) {
+            return;
+        }
+        log.info("Восстановление HyperLogLog за {} часовых интервалов по сохраненным EndpointHit", hours.size());
+        List<EndpointHit> batch = new ArrayList<>();
+        transactionTemplate.executeWithoutResult(status -> hours.forEach(hour ->
+                hitJdbcRepository.findAllBetween(hour, hour.plusHours(1), hit -> {
+                    hit.setIpHash(Hashing.hash64(IpAddresses.toBytes(hit.getIp())));
+                    batch.add(hit);
+                    if (batch.size() == BACKFILL_BATCH_SIZE) {
+                        onHits(batch);
+                        batch.clear();
+                    }
+                })));
+        onHits(batch);
+        flush();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private void mergeInMemory(Map<StatsKey, HyperLogLog> sketches, BiPredicate<Integer, LocalDateTime> filter) {
+        forEachInMemory(filter, (key, sketch) -> merge(sketches, key, sketch));
+    }
+
+    private void forEachInMemory(BiPredicate<Integer, LocalDateTime> filter,
+                                 BiConsumer<RollupKey, HyperLogLog> consumer) {
+        for (Map<RollupKey, HyperLogLog> source : List.of(flushing, pending)) {
+            for (RollupKey key : source.keySet()) {
+                if (filter.test(key.getUriId(), key.getBucket())) {
+                    source.computeIfPresent(key, (k, sketch) -> {
+                        consumer.accept(k, sketch);
+                        return sketch;
+                    });
+                }
+            }
+        }
+    }
+
+    private static void merge(Map<StatsKey, HyperLogLog> sketches, RollupKey key, HyperLogLog sketch) {
+        sketches.computeIfAbsent(new StatsKey(key.getAppId(), key.getUriId()), k -> new HyperLogLog()).merge(sketch);
+    }
+
+    private static void addIp(Map<StatsKey, HyperLogLog> sketches, StatsKey key, String ip) {
+        sketches.computeIfAbsent(key, k -> new HyperLogLog()).addHash(Hashing.hash64(IpAddresses.toBytes(ip)));
+    }
+
+    private static List<HitCount> estimate(Map<StatsKey, HyperLogLog> sketches) {
+        List<HitCount> stats = new ArrayList<>(sketches.size());
+        sketches.forEach((key, sketch) -> stats.add(new HitCount(key.getAppId(), key.getUriId(), sketch.estimate())));
+        stats.sort(Comparator.comparingLong(HitCount::getHits).reversed());
+        return stats;
+    }
+
+    private static boolean contains(List<TimeRange> ranges, LocalDateTime bucket) {
+        for (TimeRange range : ranges) {
+            if (!bucket.isBefore(range.getFrom()) && bucket.isBefore(range.getTo())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,161 @@
+package ru.practicum.stats.sketch;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * HyperLogLog со стандартной ошибкой оценки 1.04 / sqrt(2^precision).
+ * Пока заполнено мало регистров, хранит их в разреженном виде.
+ */
+public class HyperLogLog {
+    public static final int DEFAULT_PRECISION = 12;
+    private static final byte SPARSE = 0;
+    private static final byte DENSE = 1;
+    private final int precision;
+    private final int registerCount;
+    private byte[] registers;
+    private int[] sparse;
+    private int sparseSize;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("precision должен быть от 4 до 18");
+        }
+        this.precision = precision;
+        this.registerCount = 1 << precision;
+        this.sparse = new int[4];
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        set(index, rank);
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Нельзя объединить HyperLogLog разной точности");
+        }
+        if (other.registers != null) {
+            for (int i = 0; i < registerCount; i++) {
+                if (other.registers[i] != 0) {
+                    set(i, other.registers[i]);
+                }
+            }
+        } else {
+            for (int i = 0; i < other.sparseSize; i++) {
+                set(other.sparse[i] >>> 8, other.sparse[i] & 0xff);
+            }
+        }
+    }
+
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        if (registers != null) {
+            for (byte register : registers) {
+                sum += 1.0 / (1L << register);
+                if (register == 0) {
+                    zeros++;
+                }
+            }
+        } else {
+            zeros = registerCount - sparseSize;
+            sum = zeros;
+            for (int i = 0; i < sparseSize; i++) {
+                sum += 1.0 / (1L << (sparse[i] & 0xff));
+            }
+        }
+        double estimate = alpha() * registerCount * registerCount / sum;
+        if (estimate <= 2.5 * registerCount && zeros > 0) {
+            estimate = registerCount * Math.log((double) registerCount / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    public byte[] toBytes() {
+        if (registers != null) {
+            return ByteBuffer.allocate(2 + registerCount).put(DENSE).put((byte) precision).put(registers).array();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(6 + sparseSize * Integer.BYTES)
+                .put(SPARSE).put((byte) precision).putInt(sparseSize);
+        for (int i = 0; i < sparseSize; i++) {
+            buffer.putInt(sparse[i]);
+        }
+        return buffer.array();
+    }
+
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte mode = buffer.get();
+        HyperLogLog hyperLogLog = new HyperLogLog(buffer.get());
+        if (mode == DENSE) {
+            hyperLogLog.registers = new byte[hyperLogLog.registerCount];
+            buffer.get(hyperLogLog.registers);
+            hyperLogLog.sparse = null;
+        } else {
+            int size = buffer.getInt();
+            for (int i = 0; i < size; i++) {
+                int entry = buffer.getInt();
+                hyperLogLog.set(entry >>> 8, entry & 0xff);
+            }
+        }
+        return hyperLogLog;
+    }
+
+    private void set(int index, int rank) {
+        if (registers != null) {
+            if (registers[index] < rank) {
+                registers[index] = (byte) rank;
+            }
+            return;
+        }
+        for (int i = 0; i < sparseSize; i++) {
+            if (sparse[i] >>> 8 == index) {
+                if ((sparse[i] & 0xff) < rank) {
+                    sparse[i] = index << 8 | rank;
+                }
+                return;
+            }
+        }
+        if (sparseSize >= registerCount / 8) {
+            toDense();
+            registers[index] = (byte) rank;
+            return;
+        }
+        if (sparseSize == sparse.length) {
+            sparse = Arrays.copyOf(sparse, sparse.length * 2);
+        }
+        sparse[sparseSize++] = index << 8 | rank;
+    }
+
+    private void toDense() {
+        registers = new byte[registerCount];
+        for (int i = 0; i < sparseSize; i++) {
+            registers[sparse[i] >>> 8] = (byte) (sparse[i] & 0xff);
+        }
+        sparse = null;
+        sparseSize = 0;
+    }
+
+    private double alpha() {
+        switch (registerCount) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / registerCount);
+        }
+    }
+}
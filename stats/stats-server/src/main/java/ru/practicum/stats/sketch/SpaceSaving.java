@@ -0,0 +1,203 @@
+package ru.practicum.stats.sketch;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving: хранит не более capacity счетчиков в min-куче.
+ * Счетчик завышает частоту ключа не более чем на error, любой ключ с частотой больше total / capacity
+ * гарантированно присутствует в сводке.
+ */
+public class SpaceSaving {
+    private final int capacity;
+    private final long[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final Map<Long, Integer> positions;
+    private int size;
+
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity должен быть положительным");
+        }
+        this.capacity = capacity;
+        this.keys = new long[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.positions = new HashMap<>();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void add(long key, long weight) {
+        Integer position = positions.get(key);
+        if (position != null) {
+            counts[position] += weight;
+            siftDown(position);
+        } else if (size < capacity) {
+            set(size, key, weight, 0);
+            siftUp(size++);
+        } else {
+            long min = counts[0];
+            positions.remove(keys[0]);
+            set(0, key, min + weight, min);
+            siftDown(0);
+        }
+    }
+
+    public void merge(SpaceSaving other) {
+        long minCount = minCount();
+        long otherMinCount = other.minCount();
+        Map<Long, Counter> merged = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            merged.put(keys[i], new Counter(keys[i], counts[i] + otherMinCount, errors[i] + otherMinCount));
+        }
+        for (int i = 0; i < other.size; i++) {
+            Counter counter = merged.get(other.keys[i]);
+            if (counter == null) {
+                merged.put(other.keys[i], new Counter(other.keys[i], other.counts[i] + minCount,
+                        other.errors[i] + minCount));
+            } else {
+                merged.put(other.keys[i], new Counter(other.keys[i], counter.count - otherMinCount + other.counts[i],
+                        counter.error - otherMinCount + other.errors[i]));
+            }
+        }
+        List<Counter> counters = new ArrayList<>(merged.values());
+        counters.sort(Comparator.comparingLong(Counter::getCount).reversed());
+        positions.clear();
+        size = 0;
+        for (Counter counter : counters.subList(0, Math.min(capacity, counters.size()))) {
+            set(size, counter.key, counter.count, counter.error);
+            siftUp(size++);
+        }
+    }
+
+    public List<Counter> top(int limit) {
+        List<Counter> counters = counters();
+        counters.sort(Comparator.comparingLong(Counter::getCount).reversed());
+        return counters.subList(0, Math.min(limit, counters.size()));
+    }
+
+    public List<Counter> candidates(int limit) {
+        List<Counter> counters = counters();
+        if (counters.size() <= limit) {
+            return counters;
+        }
+        counters.sort(Comparator.comparingLong(Counter::getGuaranteed).reversed());
+        long threshold = counters.get(limit - 1).getGuaranteed();
+        List<Counter> candidates = new ArrayList<>();
+        for (Counter counter : counters) {
+            if (counter.count >= threshold) {
+                candidates.add(counter);
+            }
+        }
+        return candidates;
+    }
+
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * Integer.BYTES + size * 3 * Long.BYTES)
+                .putInt(capacity).putInt(size);
+        for (int i = 0; i < size; i++) {
+            buffer.putLong(keys[i]).putLong(counts[i]).putLong(errors[i]);
+        }
+        return buffer.array();
+    }
+
+    public static SpaceSaving fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        SpaceSaving spaceSaving = new SpaceSaving(buffer.getInt());
+        int size = buffer.getInt();
+        for (int i = 0; i < size; i++) {
+            spaceSaving.set(i, buffer.getLong(), buffer.getLong(), buffer.getLong());
+        }
+        spaceSaving.size = size;
+        return spaceSaving;
+    }
+
+    private long minCount() {
+        return size < capacity ? 0 : counts[0];
+    }
+
+    private List<Counter> counters() {
+        List<Counter> counters = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            counters.add(new Counter(keys[i], counts[i], errors[i]));
+        }
+        return counters;
+    }
+
+    private void set(int position, long key, long count, long error) {
+        keys[position] = key;
+        counts[position] = count;
+        errors[position] = error;
+        positions.put(key, position);
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (counts[parent] <= counts[position]) {
+                return;
+            }
+            swap(parent, position);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < size && counts[left] < counts[smallest]) {
+                smallest = left;
+            }
+            if (right < size && counts[right] < counts[smallest]) {
+                smallest = right;
+            }
+            if (smallest == position) {
+                return;
+            }
+            swap(smallest, position);
+            position = smallest;
+        }
+    }
+
+    private void swap(int first, int second) {
+        long key = keys[first];
+        long count = counts[first];
+        long error = errors[first];
+        set(first, keys[second], counts[second], errors[second]);
+        set(second, key, count, error);
+    }
+
+    public static final class Counter {
+        private final long key;
+        private final long count;
+        private final long error;
+
+        private Counter(long key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getGuaranteed() {
+            return count - error;
+        }
+    }
+}
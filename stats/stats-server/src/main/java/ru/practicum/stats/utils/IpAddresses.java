@@ -0,0 +1,95 @@
+package ru.practicum.stats.utils;
+
+import lombok.experimental.UtilityClass;
+
+import java.nio.ByteBuffer;
+
+@UtilityClass
+public class IpAddresses {
+    public static final String UNKNOWN_IP = "0.0.0.0";
+    private static final String INVALID_IP = "Некорректный ip: %s";
+
+    public String normalize(String ip) {
+        String address = ip == null ? "" : ip.split(",", 2)[0].trim();
+        try {
+            toBytes(address);
+            return address;
+        } catch (IllegalArgumentException e) {
+            return UNKNOWN_IP;
+        }
+    }
+
+    public byte[] toBytes(String ip) {
+        if (ip == null || ip.isEmpty()) {
+            throw new IllegalArgumentException(String.format(INVALID_IP, ip));
+        }
+        return ip.indexOf(':') >= 0 ? parseIpv6(ip) : parseIpv4(ip);
+    }
+
+    private byte[] parseIpv4(String ip) {
+        String[] parts = ip.split("\\.", -1);
+        if (parts.length != 4) {
+            throw new IllegalArgumentException(String.format(INVALID_IP, ip));
+        }
+        byte[] bytes = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            bytes[i] = (byte) parseNumber(ip, parts[i], 10, 3, 255);
+        }
+        return bytes;
+    }
+
+    private byte[] parseIpv6(String ip) {
+        String address = ip;
+        byte[] ipv4Tail = null;
+        int lastColon = address.lastIndexOf(':');
+        if (address.indexOf('.', lastColon) >= 0) {
+            ipv4Tail = parseIpv4(address.substring(lastColon + 1));
+            address = address.substring(0, lastColon + 1) + "0:0";
+        }
+        int compression = address.indexOf("::");
+        if (compression >= 0 && address.indexOf("::", compression + 1) >= 0) {
+            throw new IllegalArgumentException(String.format(INVALID_IP, ip));
+        }
+        String[] head = split(compression >= 0 ? address.substring(0, compression) : address);
+        String[] tail = compression >= 0 ? split(address.substring(compression + 2)) : new String[0];
+        int groups = head.length + tail.length;
+        if (groups > 8 || (compression < 0 && groups != 8) || (compression >= 0 && groups == 8)) {
+            throw new IllegalArgumentException(String.format(INVALID_IP, ip));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        for (String group : head) {
+            buffer.putShort((short) parseNumber(ip, group, 16, 4, 0xffff));
+        }
+        buffer.position(16 - tail.length * 2);
+        for (String group : tail) {
+            buffer.putShort((short) parseNumber(ip, group, 16, 4, 0xffff));
+        }
+        byte[] bytes = buffer.array();
+        if (ipv4Tail != null) {
+            System.arraycopy(ipv4Tail, 0, bytes, 12, 4);
+        }
+        return bytes;
+    }
+
+    private String[] split(String groups) {
+        return groups.isEmpty() ? new String[0] : groups.split(":", -1);
+    }
+
+    private int parseNumber(String ip, String part, int radix, int maxLength, int maxValue) {
+        if (part.isEmpty() || part.length() > maxLength) {
+            throw new IllegalArgumentException(String.format(INVALID_IP, ip));
+        }
+        int value = 0;
+        for (int i = 0; i < part.length(); i++) {
+            int digit = Character.digit(part.charAt(i), radix);
+            if (digit < 0) {
+                throw new IllegalArgumentException(String.format(INVALID_IP, ip));
+            }
+            value = value * radix + digit;
+        }
+        if (value > maxValue) {
+            throw new IllegalArgumentException(String.format(INVALID_IP, ip));
+        }
+        return value;
+    }
+}
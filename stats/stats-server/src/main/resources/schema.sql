@@ -1,8 +1,171 @@
+DO '
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_class WHERE relname = ''hits'' AND relkind = ''r'') THEN
+        ALTER TABLE hits RENAME TO hits_legacy;
+        ALTER TABLE hits_legacy ALTER COLUMN id DROP IDENTITY IF EXISTS;
+        ALTER TABLE hits_legacy RENAME CONSTRAINT hits_pkey TO hits_legacy_pkey;
+    END IF;
+END';
+
+CREATE OR REPLACE FUNCTION to_inet_or_unknown(value TEXT) RETURNS INET AS '
+BEGIN
+    RETURN CAST(TRIM(SPLIT_PART(value, '','', 1)) AS INET);
+EXCEPTION
+    WHEN OTHERS THEN RETURN CAST(''0.0.0.0'' AS INET);
+END' LANGUAGE plpgsql IMMUTABLE;
+
+CREATE TABLE IF NOT EXISTS apps
+(
+    id   SERIAL PRIMARY KEY,
+    name VARCHAR(255) NOT NULL UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS uris
+(
+    id  SERIAL PRIMARY KEY,
+    uri VARCHAR(255) NOT NULL UNIQUE
+);
+
+CREATE SEQUENCE IF NOT EXISTS hits_id_seq;
+
 CREATE TABLE IF NOT EXISTS hits
 (
-    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
-    app VARCHAR(255)       NOT NULL,
-    uri VARCHAR(255)       NOT NULL,
-    ip  VARCHAR(255)          NOT NULL,
-    created_date TIMESTAMP NOT NULL
+    id           BIGINT    NOT NULL DEFAULT nextval('hits_id_seq'),
+    app_id       INTEGER   NOT NULL,
+    uri_id       INTEGER   NOT NULL,
+    ip           INET      NOT NULL,
+    created_date TIMESTAMP NOT NULL,
+    hit_count    INTEGER   NOT NULL DEFAULT 1,
+    PRIMARY KEY (id, created_date)
+) PARTITION BY RANGE (created_date);
+
+CREATE TABLE IF NOT EXISTS hits_default PARTITION OF hits DEFAULT;
+
+ALTER TABLE hits ADD COLUMN IF NOT EXISTS hit_count INTEGER NOT NULL DEFAULT 1;
+
+CREATE TABLE IF NOT EXISTS hits_minute
+(
+    app_id INTEGER   NOT NULL,
+    uri_id INTEGER   NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    hits   BIGINT    NOT NULL,
+    PRIMARY KEY (bucket, app_id, uri_id)
+);
+
+CREATE TABLE IF NOT EXISTS hits_hour
+(
+    app_id INTEGER   NOT NULL,
+    uri_id INTEGER   NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    hits   BIGINT    NOT NULL,
+    PRIMARY KEY (bucket, app_id, uri_id)
+);
+
+CREATE TABLE IF NOT EXISTS hll_hour
+(
+    app_id INTEGER   NOT NULL,
+    uri_id INTEGER   NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    sketch BYTEA     NOT NULL,
+    PRIMARY KEY (bucket, app_id, uri_id)
+);
+
+CREATE TABLE IF NOT EXISTS hits_day
+(
+    app_id INTEGER   NOT NULL,
+    uri_id INTEGER   NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    hits   BIGINT    NOT NULL,
+    sketch BYTEA,
+    PRIMARY KEY (bucket, app_id, uri_id)
+);
+
+CREATE TABLE IF NOT EXISTS top_hour
+(
+    bucket  TIMESTAMP PRIMARY KEY,
+    summary BYTEA NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS top_day
+(
+    bucket  TIMESTAMP PRIMARY KEY,
+    summary BYTEA NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS compaction_state
+(
+    id            INTEGER PRIMARY KEY,
+    horizon       TIMESTAMP NOT NULL,
+    archived_from TIMESTAMP
+);
+
+ALTER TABLE compaction_state ADD COLUMN IF NOT EXISTS archived_from TIMESTAMP;
+
+CREATE TABLE IF NOT EXISTS flush_state
+(
+    name       VARCHAR(32) PRIMARY KEY,
+    flushed_id BIGINT      NOT NULL
 );
+
+DO '
+DECLARE
+    t TEXT;
+BEGIN
+    FOREACH t IN ARRAY ARRAY [''hits'', ''hits_minute'', ''hits_hour'', ''hll_hour'']
+        LOOP
+            IF EXISTS (SELECT 1 FROM information_schema.columns c WHERE c.table_name = t AND c.column_name = ''app'')
+            THEN
+                EXECUTE format(''INSERT INTO apps (name) SELECT DISTINCT app FROM %I ON CONFLICT DO NOTHING'', t);
+                EXECUTE format(''INSERT INTO uris (uri) SELECT DISTINCT uri FROM %I ON CONFLICT DO NOTHING'', t);
+                EXECUTE format(''ALTER TABLE %I ADD COLUMN app_id INTEGER, ADD COLUMN uri_id INTEGER'', t);
+                EXECUTE format(''UPDATE %I r SET app_id = a.id, uri_id = u.id FROM apps a, uris u '' ||
+                               ''WHERE a.name = r.app AND u.uri = r.uri'', t);
+                EXECUTE format(''ALTER TABLE %I ALTER COLUMN app_id SET NOT NULL, ALTER COLUMN uri_id SET NOT NULL, '' ||
+                               ''DROP COLUMN app, DROP COLUMN uri'', t);
+                IF t = ''hits'' THEN
+                    ALTER TABLE hits ALTER COLUMN ip TYPE INET USING to_inet_or_unknown(ip);
+                ELSE
+                    EXECUTE format(''ALTER TABLE %I ADD PRIMARY KEY (bucket, app_id, uri_id)'', t);
+                END IF;
+                IF t = ''hll_hour'' THEN
+                    TRUNCATE hll_hour;
+                END IF;
+            END IF;
+        END LOOP;
+END';
+
+CREATE INDEX IF NOT EXISTS idx_hits_created_date ON hits (created_date);
+CREATE INDEX IF NOT EXISTS idx_hits_uri_created_date ON hits (uri_id, created_date);
+CREATE INDEX IF NOT EXISTS idx_hits_minute_uri_bucket ON hits_minute (uri_id, bucket);
+CREATE INDEX IF NOT EXISTS idx_hits_hour_uri_bucket ON hits_hour (uri_id, bucket);
+CREATE INDEX IF NOT EXISTS idx_hll_hour_uri_bucket ON hll_hour (uri_id, bucket);
+CREATE INDEX IF NOT EXISTS idx_hits_day_uri_bucket ON hits_day (uri_id, bucket);
+
+DO '
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_class WHERE relname = ''hits_legacy'') THEN
+        INSERT INTO apps (name) SELECT DISTINCT app FROM hits_legacy ON CONFLICT DO NOTHING;
+        INSERT INTO uris (uri) SELECT DISTINCT uri FROM hits_legacy ON CONFLICT DO NOTHING;
+        INSERT INTO hits (id, app_id, uri_id, ip, created_date)
+        SELECT l.id, a.id, u.id, to_inet_or_unknown(l.ip), l.created_date
+        FROM hits_legacy l
+                 JOIN apps a ON a.name = l.app
+                 JOIN uris u ON u.uri = l.uri;
+        PERFORM setval(''hits_id_seq'', (SELECT COALESCE(MAX(id), 0) + 1 FROM hits), false);
+        DROP TABLE hits_legacy;
+    END IF;
+END';
+
+INSERT INTO hits_minute (app_id, uri_id, bucket, hits)
+SELECT app_id, uri_id, DATE_TRUNC('minute', created_date), SUM(hit_count)
+FROM hits
+WHERE NOT EXISTS (SELECT 1 FROM hits_minute)
+  AND created_date >= COALESCE((SELECT horizon FROM compaction_state), '-infinity')
+GROUP BY app_id, uri_id, DATE_TRUNC('minute', created_date);
+
+INSERT INTO hits_hour (app_id, uri_id, bucket, hits)
+SELECT app_id, uri_id, DATE_TRUNC('hour', created_date), SUM(hit_count)
+FROM hits
+WHERE NOT EXISTS (SELECT 1 FROM hits_hour)
+  AND created_date >= COALESCE((SELECT horizon FROM compaction_state), '-infinity')
+GROUP BY app_id, uri_id, DATE_TRUNC('hour', created_date);